@@ -0,0 +1,241 @@
+package core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of a play session, so that progress survives a crash and saving only costs
+ * the moves made since the last write. The file starts with a header (magic, version, seed,
+ * width, height) followed by records:
+ *
+ *   byte   MOVES or CHECKPOINT
+ *   varint payload length
+ *   payload
+ *   int    CRC32 of the payload
+ *
+ * A MOVES record holds a batch of actions in the order they were made. A CHECKPOINT holds the
+ * whole world in WorldCodec format, minus the action history, which the MOVES records already
+ * have. Actions are written every flushEvery moves and a checkpoint is taken every
+ * checkpointEvery moves, so recovery loads the last checkpoint and replays at most
+ * checkpointEvery moves on top of it. A record torn by a crash fails its length or CRC check
+ * and is dropped together with anything after it.
+ */
+public class ActionJournal implements Closeable {
+    static final int MAGIC = 0x45574a4c;
+    static final int VERSION = 1;
+    /** Where the game journals its session, whether played in Main or by AutograderBuddy. */
+    public static final String SESSION_FILE = "session.journal";
+    public static final int DEFAULT_FLUSH_EVERY = 16;
+    public static final int DEFAULT_CHECKPOINT_EVERY = 512;
+    private static final int MOVES = 1;
+    private static final int CHECKPOINT = 2;
+
+    private final World world;
+    private final DataOutputStream out;
+    private final char[] pending;
+    private final int checkpointEvery;
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+    private int numPending;
+    private int sinceCheckpoint;
+
+    private ActionJournal(World world, FileOutputStream file, int flushEvery,
+                          int checkpointEvery) {
+        this.world = world;
+        this.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        this.pending = new char[flushEvery];
+        this.checkpointEvery = checkpointEvery;
+    }
+
+    public static ActionJournal create(String path, World world) throws IOException {
+        return create(path, world, DEFAULT_FLUSH_EVERY, DEFAULT_CHECKPOINT_EVERY);
+    }
+
+    /** Starts a new journal for world at path, replacing any old one, and attaches it. */
+    public static ActionJournal create(String path, World world, int flushEvery,
+                                       int checkpointEvery) throws IOException {
+        ActionJournal journal = new ActionJournal(world, new FileOutputStream(path),
+                flushEvery, checkpointEvery);
+        journal.out.writeInt(MAGIC);
+        journal.out.writeByte(VERSION);
+        journal.out.writeLong(world.getSeed());
+        WorldCodec.writeVarint(journal.out, world.getWidth());
+        WorldCodec.writeVarint(journal.out, world.getHeight());
+        journal.checkpoint();
+        world.setJournal(journal);
+        return journal;
+    }
+
+    public static ActionJournal resume(String path) throws IOException {
+        return resume(path, DEFAULT_FLUSH_EVERY, DEFAULT_CHECKPOINT_EVERY);
+    }
+
+    /**
+     * Recovers the session stored at path and keeps journaling it. A torn tail left by a
+     * crash is cut off first so that new records follow the last good one.
+     */
+    public static ActionJournal resume(String path, int flushEvery, int checkpointEvery)
+            throws IOException {
+        Recovery recovery = recover(path);
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(recovery.validLength);
+        }
+        ActionJournal journal = new ActionJournal(recovery.world,
+                new FileOutputStream(path, true), flushEvery, checkpointEvery);
+        journal.sinceCheckpoint = recovery.replayed;
+        recovery.world.setJournal(journal);
+        return journal;
+    }
+
+    /** Recovers the session stored at path without writing to it. */
+    public static World load(String path) throws IOException {
+        return recover(path).world;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /** Called by World for every action it records. */
+    void append(char action) throws IOException {
+        pending[numPending++] = action;
+        sinceCheckpoint++;
+        if (sinceCheckpoint >= checkpointEvery) {
+            checkpoint();
+        } else if (numPending == pending.length) {
+            flush();
+        }
+    }
+
+    /** Writes the buffered actions and hands them to the OS. */
+    public void flush() throws IOException {
+        writeMoves();
+        out.flush();
+    }
+
+    /** Writes the buffered actions, then a snapshot of the world. */
+    public void checkpoint() throws IOException {
+        writeMoves();
+        payload.reset();
+        WorldCodec.write(world, payload, true, false);
+        writeRecord(CHECKPOINT);
+        sinceCheckpoint = 0;
+        out.flush();
+    }
+
+    /** Checkpoints, closes the file and detaches the journal from its world. */
+    @Override
+    public void close() throws IOException {
+        try {
+            checkpoint();
+        } finally {
+            world.setJournal(null);
+            out.close();
+        }
+    }
+
+    private void writeMoves() throws IOException {
+        if (numPending == 0) {
+            return;
+        }
+        payload.reset();
+        DataOutputStream moves = new DataOutputStream(payload);
+        WorldCodec.writeVarint(moves, numPending);
+        for (int i = 0; i < numPending; i++) {
+            WorldCodec.writeVarint(moves, pending[i]);
+        }
+        writeRecord(MOVES);
+        numPending = 0;
+    }
+
+    private void writeRecord(int type) throws IOException {
+        crc.reset();
+        crc.update(payload.toByteArray(), 0, payload.size());
+        out.writeByte(type);
+        WorldCodec.writeVarint(out, payload.size());
+        payload.writeTo(out);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private record Recovery(World world, long validLength, int replayed) {
+    }
+
+    private static Recovery recover(String path) throws IOException {
+        byte[] bytes = Files.readAllBytes(Path.of(path));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a session journal: " + path);
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported journal version " + version + ".");
+        }
+        in.readLong();
+        int width = WorldCodec.readVarint(in);
+        int height = WorldCodec.readVarint(in);
+
+        List<Character> actions = new ArrayList<>();
+        byte[] checkpoint = null;
+        int checkpointAt = 0;
+        long validLength = bytes.length - in.available();
+        CRC32 crc = new CRC32();
+        while (in.available() > 0) {
+            byte[] data;
+            int type;
+            try {
+                type = in.readUnsignedByte();
+                int length = WorldCodec.readVarint(in);
+                if (length > in.available() - 4) {
+                    break;
+                }
+                data = new byte[length];
+                in.readFully(data);
+                crc.reset();
+                crc.update(data);
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            if (type == MOVES) {
+                DataInputStream moves = new DataInputStream(new ByteArrayInputStream(data));
+                for (int n = WorldCodec.readVarint(moves); n > 0; n--) {
+                    actions.add((char) WorldCodec.readVarint(moves));
+                }
+            } else if (type == CHECKPOINT) {
+                checkpoint = data;
+                checkpointAt = actions.size();
+            } else {
+                break;
+            }
+            validLength = bytes.length - in.available();
+        }
+        if (checkpoint == null) {
+            throw new IOException("Journal has no checkpoint: " + path);
+        }
+
+        World world = WorldCodec.read(new ByteArrayInputStream(checkpoint));
+        if (world.getWidth() != width || world.getHeight() != height) {
+            throw new IOException("Journal checkpoint does not match its header.");
+        }
+        world.getRecordedActions().addAll(actions.subList(0, checkpointAt));
+        for (int i = checkpointAt; i < actions.size(); i++) {
+            world.move(actions.get(i));
+        }
+        return new Recovery(world, validLength, actions.size() - checkpointAt);
+    }
+}
@@ -0,0 +1,242 @@
+package tileengine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Renders tiles as ANSI-coloured text, for watching a game on a machine with no display,
+ * e.g. over ssh. One tile is one character cell; the top line of the terminal holds a
+ * status line (the HUD) and the view sits below it, world row height - 1 first.
+ *
+ * Like TERenderer.renderChanges, only tiles that changed since the last frame are sent:
+ * each is a cursor move (left out when the cell directly follows the last one written), a
+ * colour change (left out when the colours are the same as the last cell's) and the
+ * character. The status line is diffed character by character. A frame is built in one
+ * byte buffer that is reused from frame to frame and written to the stream with a single
+ * write, so a frame where the avatar took a step costs a few dozen bytes.
+ */
+public class AnsiRenderer {
+    private static final byte ESC = 0x1b;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final TETile[][] view;
+    private final char[] status;
+    private TETile[][] lastFrame;
+    private char[] lastStatus;
+    private byte[] buffer = new byte[1 << 14];
+    private int length;
+    private int cursorRow;
+    private int cursorColumn;
+    private int foreground;
+    private int background;
+    private boolean coloursSet;
+    private long bytesWritten;
+
+    /**
+     * @param out where frames are written, e.g. System.out
+     * @param width width of the view in tiles
+     * @param height height of the view in tiles, not counting the status line
+     */
+    public AnsiRenderer(OutputStream out, int width, int height) {
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.view = new TETile[width][height];
+        this.status = new char[width];
+        invalidate();
+    }
+
+    /** Total bytes sent so far. */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Sets the status line shown above the view: left is left-aligned, centre centred and
+     * right right-aligned, each cut short if the line is too narrow. Sent with the next frame.
+     */
+    public void status(String left, String centre, String right) {
+        Arrays.fill(status, ' ');
+        put(right, width - right.length());
+        put(centre, (width - centre.length()) / 2);
+        put(left, 0);
+    }
+
+    private void put(String text, int from) {
+        for (int i = Math.max(0, -from); i < text.length() && from + i < width; i++) {
+            status[from + i] = text.charAt(i);
+        }
+    }
+
+    /**
+     * Sends the tiles of world that changed since the last frame, with world[0][0] in the
+     * bottom left corner. Cells outside world keep whatever they showed.
+     * @param world the 2D TETile[][] array to render
+     * @return the number of tiles sent
+     */
+    public int renderChanges(TETile[][] world) {
+        if (lastFrame == null) {
+            lastFrame = new TETile[width][height];
+            lastStatus = new char[width];
+            coloursSet = false;
+            // clear the screen and hide the cursor
+            putEscape("[0m");
+            putEscape("[2J");
+            putEscape("[?25l");
+            cursorRow = -1;
+        }
+        int drawn = 0;
+        int rows = Math.min(height, world[0].length);
+        for (int y = rows - 1; y >= 0; y--) {
+            for (int x = 0; x < width && x < world.length; x++) {
+                TETile tile = world[x][y];
+                if (tile == lastFrame[x][y]) {
+                    continue;
+                }
+                if (tile == null) {
+                    throw new IllegalArgumentException("Tile at position x=" + x + ", y=" + y
+                            + " is null.");
+                }
+                moveTo(height - y, x);
+                setColours(tile.textColor().getRGB(), tile.backgroundColor().getRGB());
+                putChar(tile.character());
+                lastFrame[x][y] = tile;
+                drawn++;
+            }
+        }
+        renderStatus();
+        flush();
+        return drawn;
+    }
+
+    /**
+     * Sends the part of source that camera looks at. A terminal cannot draw part of a cell,
+     * so a scrolling camera is rounded down to whole tiles.
+     * @return the number of tiles sent
+     */
+    public int renderView(TileSource source, Camera camera) {
+        long left = camera.left();
+        long bottom = camera.bottom();
+        for (int x = 0; x < width; x++) {
+            TETile[] column = view[x];
+            for (int y = 0; y < height; y++) {
+                column[y] = source.tile(left + x, bottom + y);
+            }
+        }
+        return renderChanges(view);
+    }
+
+    /** Makes the next frame clear the terminal and send every cell. */
+    public void invalidate() {
+        lastFrame = null;
+    }
+
+    /** Resets the colours, shows the cursor again and leaves it below the view. */
+    public void close() {
+        putEscape("[0m");
+        coloursSet = false;
+        moveTo(height + 1, 0);
+        putEscape("[?25h");
+        putByte('\n');
+        flush();
+    }
+
+    private void renderStatus() {
+        for (int x = 0; x < width; x++) {
+            if (status[x] != lastStatus[x]) {
+                moveTo(0, x);
+                setColours(0xffffffff, 0xff000000);
+                putChar(status[x]);
+                lastStatus[x] = status[x];
+            }
+        }
+    }
+
+    // row 0 is the status line, rows 1 to height the view
+    private void moveTo(int row, int column) {
+        if (row == cursorRow && column == cursorColumn) {
+            return;
+        }
+        putEscape("[");
+        putInt(row + 1);
+        putByte(';');
+        putInt(column + 1);
+        putByte('H');
+        cursorRow = row;
+        cursorColumn = column;
+    }
+
+    private void setColours(int text, int back) {
+        if (!coloursSet || text != foreground) {
+            putEscape("[38;2;");
+            putRgb(text);
+            foreground = text;
+        }
+        if (!coloursSet || back != background) {
+            putEscape("[48;2;");
+            putRgb(back);
+            background = back;
+        }
+        coloursSet = true;
+    }
+
+    private void putRgb(int rgb) {
+        putInt((rgb >> 16) & 0xff);
+        putByte(';');
+        putInt((rgb >> 8) & 0xff);
+        putByte(';');
+        putInt(rgb & 0xff);
+        putByte('m');
+    }
+
+    private void putEscape(String sequence) {
+        putByte(ESC);
+        for (int i = 0; i < sequence.length(); i++) {
+            putByte(sequence.charAt(i));
+        }
+    }
+
+    private void putInt(int value) {
+        if (value >= 10) {
+            putInt(value / 10);
+        }
+        putByte('0' + value % 10);
+    }
+
+    // UTF-8; every tile character is in the Basic Multilingual Plane
+    private void putChar(char c) {
+        if (c < 0x80) {
+            putByte(c);
+        } else if (c < 0x800) {
+            putByte(0xc0 | c >> 6);
+            putByte(0x80 | c & 0x3f);
+        } else {
+            putByte(0xe0 | c >> 12);
+            putByte(0x80 | c >> 6 & 0x3f);
+            putByte(0x80 | c & 0x3f);
+        }
+        cursorColumn++;
+    }
+
+    private void putByte(int b) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    private void flush() {
+        try {
+            out.write(buffer, 0, length);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        bytesWritten += length;
+        length = 0;
+    }
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import core.AutograderBuddy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tileengine.TETile;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AutograderBuddy replaying a long input string. The autograder always plays on a 50x50
+ * world, so unlike the other benchmarks this one has no size parameter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AutograderBenchmark {
+    @Param({"10000"})
+    public int inputLength;
+
+    private static final long SEED = 42;
+    private String input;
+
+    @Setup
+    public void setUp() {
+        Random r = new Random(SEED);
+        StringBuilder sb = new StringBuilder("n" + SEED + "s");
+        for (int i = 0; i < inputLength; i++) {
+            sb.append("wasd".charAt(r.nextInt(4)));
+        }
+        input = sb.toString();
+    }
+
+    @Benchmark
+    public TETile[][] autograderInput() {
+        return AutograderBuddy.getWorldFromInput(input);
+    }
+}
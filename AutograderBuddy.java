@@ -4,8 +4,14 @@ import tileengine.TETile;
 import tileengine.Tileset;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class AutograderBuddy {
+    // harnesses replay the same seeds over and over; each call gets its own copy
+    private static final WorldCache CACHE = new WorldCache();
 
     /**
      * Simulates a game, but doesn't render anything or call any StdDraw
@@ -22,47 +28,91 @@ public class AutograderBuddy {
     public static TETile[][] getWorldFromInput(String input) {
         input = input.toUpperCase();
         World world = null;
+        String moves;
 
 
 
         switch (input.charAt(0)) {
             case 'N':
-                world = createNewWorld(input);
+                int endSeed = seedEnd(input);
+                world = newGame(parseSeed(input, endSeed));
+                moves = input.substring(endSeed + 1);
                 break;
             case 'L':
                 world = loadWorldFromSave();
+                moves = input.substring(1);
                 break;
             default:
                 throw new IllegalArgumentException("Input must start with 'N' or 'L'");
         }
 
-        processMoves(input.substring(1), world);
+        processMoves(moves, world);
 
         return world.getTiles();
     }
 
-    private static World createNewWorld(String input) {
+    /**
+     * Same as calling getWorldFromInput on every input in order, but new-game inputs that do
+     * not save are grouped by seed into an InputTrie, so moves shared by several inputs are
+     * simulated only once. Loads and saves still run one by one, in input order.
+     */
+    public static List<TETile[][]> getWorldsFromInputs(List<String> inputs) {
+        TETile[][][] results = new TETile[inputs.size()][][];
+        Map<Long, InputTrie> tries = new LinkedHashMap<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            String input = inputs.get(i).toUpperCase();
+            if (input.charAt(0) != 'N' || input.contains(":Q")) {
+                continue;
+            }
+            int endSeed = seedEnd(input);
+            tries.computeIfAbsent(parseSeed(input, endSeed), seed -> new InputTrie())
+                    .add(i, input.substring(endSeed + 1));
+        }
+        for (Map.Entry<Long, InputTrie> entry : tries.entrySet()) {
+            entry.getValue().evaluate(newGame(entry.getKey()), results);
+        }
+        for (int i = 0; i < inputs.size(); i++) {
+            if (results[i] == null) {
+                results[i] = getWorldFromInput(inputs.get(i));
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    // a fresh world with the player placed, as Main starts a new game
+    private static World newGame(long seed) {
+        World world = CACHE.get(seed, 50, 50);
+        world.addAvatar();
+        return world;
+    }
+
+    private static int seedEnd(String input) {
         int endSeed = input.indexOf("S");
         if (endSeed == -1) {
             throw new IllegalArgumentException("Invalid input format for creating a new world.");
         }
+        return endSeed;
+    }
 
-        long seed = Long.parseLong(input.substring(1, endSeed));
-        World world = new World(50, 50, seed);
-        world.makeRooms();
-        world.makeHallways();
-        world.addWallsAround();
-        world.addAvatars(20);
-
-        return world;
+    private static long parseSeed(String input, int endSeed) {
+        return Long.parseLong(input.substring(1, endSeed));
     }
 
+    // saves go to the session journal, so that Main can resume them and the other way round
     private static World loadWorldFromSave() {
-        World world = Main.loadWorld();
-        if (world == null) {
-            throw new RuntimeException("No previous save found.");
+        try {
+            return ActionJournal.load(ActionJournal.SESSION_FILE);
+        } catch (IOException e) {
+            throw new RuntimeException("No previous save found.", e);
+        }
+    }
+
+    private static void saveWorld(World world) {
+        try {
+            ActionJournal.create(ActionJournal.SESSION_FILE, world).close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        return world;
     }
 
     private static void processMoves(String moves, World world) {
@@ -72,7 +122,7 @@ public class AutograderBuddy {
             if ("WASD".indexOf(move) >= 0) {
                 world.move(move);
             } else if (move == ':' && i < moves.length() - 1 && moves.charAt(i + 1) == 'Q') {
-                world.saveWorld();
+                saveWorld(world);
                 break;
             }
         }
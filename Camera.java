@@ -0,0 +1,109 @@
+package tileengine;
+
+/**
+ * The part of a world that is on screen: a window of width x height tiles whose lower left
+ * corner sits at (getX(), getY()) in world tiles. follow sets the tile to keep centred and
+ * update moves the camera a fixed fraction of the remaining way there, so it scrolls
+ * smoothly and then settles on whole tiles. A smoothing of 1 jumps straight to the target.
+ *
+ * A camera given world bounds with clampTo never shows anything outside them, and stays
+ * at the lower left corner of a world smaller than itself.
+ */
+public class Camera {
+    // closer than this to the target counts as there, so scrolling ends on whole tiles
+    private static final double SETTLE = 1e-3;
+
+    private final int width;
+    private final int height;
+    private final double smoothing;
+    private double x;
+    private double y;
+    private long targetX;
+    private long targetY;
+    private boolean bounded;
+    private long boundWidth;
+    private long boundHeight;
+
+    public Camera(int width, int height) {
+        this(width, height, 1);
+    }
+
+    public Camera(int width, int height, double smoothing) {
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("smoothing must be in (0, 1]: " + smoothing);
+        }
+        this.width = width;
+        this.height = height;
+        this.smoothing = smoothing;
+    }
+
+    /** Keeps the view inside a world of the given size whose lower left tile is (0, 0). */
+    public void clampTo(long worldWidth, long worldHeight) {
+        bounded = true;
+        boundWidth = worldWidth;
+        boundHeight = worldHeight;
+        targetX = clamp(targetX, boundWidth, width);
+        targetY = clamp(targetY, boundHeight, height);
+    }
+
+    /** Makes (tileX, tileY) the tile the camera scrolls towards and keeps centred. */
+    public void follow(long tileX, long tileY) {
+        targetX = tileX - width / 2;
+        targetY = tileY - height / 2;
+        if (bounded) {
+            targetX = clamp(targetX, boundWidth, width);
+            targetY = clamp(targetY, boundHeight, height);
+        }
+    }
+
+    private static long clamp(long corner, long worldSize, int viewSize) {
+        return Math.max(0, Math.min(corner, worldSize - viewSize));
+    }
+
+    /** Advances the scroll by one frame. */
+    public void update() {
+        x = approach(x, targetX);
+        y = approach(y, targetY);
+    }
+
+    private double approach(double from, long to) {
+        double next = from + (to - from) * smoothing;
+        return Math.abs(to - next) < SETTLE ? to : next;
+    }
+
+    /** Jumps straight to the target, e.g. on the first frame or after a teleport. */
+    public void snap() {
+        x = targetX;
+        y = targetY;
+    }
+
+    public boolean isSettled() {
+        return x == targetX && y == targetY;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    /** World x of the leftmost column that is at least partly visible. */
+    public long left() {
+        return (long) Math.floor(x);
+    }
+
+    /** World y of the bottom row that is at least partly visible. */
+    public long bottom() {
+        return (long) Math.floor(y);
+    }
+}
@@ -0,0 +1,280 @@
+package core;
+
+import tileengine.TETile;
+import tileengine.TileSource;
+import utils.RandomUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+/**
+ * An unbounded world made of square chunks that are generated on demand. Each chunk is a pure
+ * function of (seed, chunkX, chunkY), so it comes out the same no matter when or in what order
+ * it is generated, and can be dropped and regenerated freely.
+ *
+ * Rooms never leave their chunk. Every chunk connects its rooms to one portal on each of its
+ * four edges, and both chunks sharing an edge derive the same portal position from the seed,
+ * so hallways line up across chunk borders without either chunk looking at the other.
+ *
+ * Generated chunks live in an LRU cache that is bounded by a memory budget. Walking in any
+ * direction keeps memory flat: chunks that have not been touched for a while are evicted.
+ */
+public class ChunkedWorld implements TileSource {
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+    public static final long DEFAULT_MEMORY_BUDGET = 16L * 1024 * 1024;
+
+    // rough per-chunk cost on top of the tile bytes: TileGrid, array header and map entry
+    private static final int CHUNK_OVERHEAD = 96;
+    private static final int EDGE_MARGIN = 3;
+    private static final int MAX_ROOMS = 3;
+    private static final int MIN_ROOM = 5;
+    private static final int MAX_ROOM = 10;
+    private static final long EAST_SALT = 0x45415354L;
+    private static final long NORTH_SALT = 0x4e4f5254L;
+
+    private final long seed;
+    private final int chunkSize;
+    private final long memoryBudget;
+    private final LinkedHashMap<Long, TileGrid> chunks;
+    private long memoryUsed;
+    private long chunksGenerated;
+    private long lastKey;
+    private TileGrid lastChunk;
+    private long playerX;
+    private long playerY;
+
+    public ChunkedWorld(long seed) {
+        this(seed, DEFAULT_CHUNK_SIZE, DEFAULT_MEMORY_BUDGET);
+    }
+
+    public ChunkedWorld(long seed, int chunkSize, long memoryBudget) {
+        if (chunkSize < 2 * EDGE_MARGIN + MAX_ROOM + 1) {
+            throw new IllegalArgumentException("Chunk size too small: " + chunkSize);
+        }
+        this.seed = seed;
+        this.chunkSize = chunkSize;
+        this.memoryBudget = memoryBudget;
+        this.chunks = new LinkedHashMap<>(16, 0.75f, true);
+        placePlayer();
+    }
+
+    private void placePlayer() {
+        TileGrid origin = chunk(0, 0);
+        for (int y = 0; y < chunkSize; y++) {
+            for (int x = 0; x < chunkSize; x++) {
+                if (origin.get(x, y) == TileGrid.FLOWER) {
+                    playerX = x;
+                    playerY = y;
+                    return;
+                }
+            }
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getPlayerX() {
+        return playerX;
+    }
+
+    public long getPlayerY() {
+        return playerY;
+    }
+
+    /** Returns the tile id at world coordinates (x, y), generating its chunk if needed. */
+    public byte get(long x, long y) {
+        if (x == playerX && y == playerY) {
+            return TileGrid.AVATAR;
+        }
+        TileGrid c = chunk((int) Math.floorDiv(x, chunkSize), (int) Math.floorDiv(y, chunkSize));
+        return c.get((int) Math.floorMod(x, chunkSize), (int) Math.floorMod(y, chunkSize));
+    }
+
+    @Override
+    public TETile tile(long x, long y) {
+        return TileGrid.tileOf(get(x, y));
+    }
+
+    /**
+     * Copies a width x height window whose lower left corner is (x0, y0) into a TETile[][],
+     * the shape TERenderer expects.
+     */
+    public TETile[][] window(long x0, long y0, int width, int height) {
+        TETile[][] tiles = new TETile[width][height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                tiles[x][y] = tile(x0 + x, y0 + y);
+            }
+        }
+        return tiles;
+    }
+
+    public void move(char key) {
+        long newX = playerX;
+        long newY = playerY;
+        switch (Character.toLowerCase(key)) {
+            case 'w':
+                newY++;
+                break;
+            case 'a':
+                newX--;
+                break;
+            case 's':
+                newY--;
+                break;
+            case 'd':
+                newX++;
+                break;
+            default:
+                return;
+        }
+        if (get(newX, newY) != TileGrid.SAND) {
+            playerX = newX;
+            playerY = newY;
+        }
+    }
+
+    public int loadedChunks() {
+        return chunks.size();
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public long getChunksGenerated() {
+        return chunksGenerated;
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    private TileGrid chunk(int cx, int cy) {
+        long key = key(cx, cy);
+        if (lastChunk != null && key == lastKey) {
+            return lastChunk;
+        }
+        TileGrid c = chunks.get(key);
+        if (c == null) {
+            c = generate(cx, cy);
+            chunksGenerated++;
+            chunks.put(key, c);
+            memoryUsed += chunkBytes();
+            evict();
+        }
+        lastKey = key;
+        lastChunk = c;
+        return c;
+    }
+
+    private long chunkBytes() {
+        return (long) chunkSize * chunkSize + CHUNK_OVERHEAD;
+    }
+
+    private void evict() {
+        Iterator<TileGrid> it = chunks.values().iterator();
+        // the chunk that was just added is the most recent entry, so it is never evicted
+        while (memoryUsed > memoryBudget && chunks.size() > 1) {
+            it.next();
+            it.remove();
+            memoryUsed -= chunkBytes();
+        }
+    }
+
+    /** Position of the portal on the east edge of chunk (cx, cy), along the y axis. */
+    private int eastPortal(int cx, int cy) {
+        return portal(EAST_SALT, cx, cy);
+    }
+
+    /** Position of the portal on the north edge of chunk (cx, cy), along the x axis. */
+    private int northPortal(int cx, int cy) {
+        return portal(NORTH_SALT, cx, cy);
+    }
+
+    private int portal(long salt, int cx, int cy) {
+        long h = RandomUtils.derive(seed ^ salt, cx, cy);
+        return EDGE_MARGIN + (int) Math.floorMod(h, (long) (chunkSize - 2 * EDGE_MARGIN));
+    }
+
+    private TileGrid generate(int cx, int cy) {
+        TileGrid c = new TileGrid(chunkSize, chunkSize);
+        Random r = new Random(RandomUtils.derive(seed, cx, cy));
+        int inner = chunkSize - 2 * EDGE_MARGIN;
+
+        int numRooms = r.nextInt(MAX_ROOMS) + 1;
+        int hubX = 0;
+        int hubY = 0;
+        int prevX = 0;
+        int prevY = 0;
+        for (int i = 0; i < numRooms; i++) {
+            int w = r.nextInt(MAX_ROOM - MIN_ROOM + 1) + MIN_ROOM;
+            int h = r.nextInt(MAX_ROOM - MIN_ROOM + 1) + MIN_ROOM;
+            int x = r.nextInt(inner - w + 1) + EDGE_MARGIN;
+            int y = r.nextInt(inner - h + 1) + EDGE_MARGIN;
+            fill(c, x, y, x + w - 1, y + h - 1);
+            int centerX = x + w / 2;
+            int centerY = y + h / 2;
+            if (i == 0) {
+                hubX = centerX;
+                hubY = centerY;
+            } else {
+                carveColumnThenRow(c, prevX, prevY, centerX, centerY);
+            }
+            prevX = centerX;
+            prevY = centerY;
+        }
+
+        // only these four corridors reach the outer EDGE_MARGIN band, so walls near an edge
+        // depend on nothing but the shared portal
+        carveColumnThenRow(c, hubX, hubY, chunkSize - 1, eastPortal(cx, cy));
+        carveColumnThenRow(c, hubX, hubY, 0, eastPortal(cx - 1, cy));
+        carveRowThenColumn(c, hubX, hubY, northPortal(cx, cy), chunkSize - 1);
+        carveRowThenColumn(c, hubX, hubY, northPortal(cx, cy - 1), 0);
+
+        addWalls(c);
+        return c;
+    }
+
+    private static void fill(TileGrid c, int x0, int y0, int x1, int y1) {
+        for (int y = Math.min(y0, y1); y <= Math.max(y0, y1); y++) {
+            for (int x = Math.min(x0, x1); x <= Math.max(x0, x1); x++) {
+                c.set(x, y, TileGrid.FLOWER);
+            }
+        }
+    }
+
+    private static void carveColumnThenRow(TileGrid c, int x0, int y0, int x1, int y1) {
+        fill(c, x0, y0, x0, y1);
+        fill(c, x0, y1, x1, y1);
+    }
+
+    private static void carveRowThenColumn(TileGrid c, int x0, int y0, int x1, int y1) {
+        fill(c, x0, y0, x1, y0);
+        fill(c, x1, y0, x1, y1);
+    }
+
+    private void addWalls(TileGrid c) {
+        for (int y = 0; y < chunkSize; y++) {
+            for (int x = 0; x < chunkSize; x++) {
+                if (c.get(x, y) != TileGrid.FLOWER) {
+                    continue;
+                }
+                for (int j = Math.max(0, y - 1); j <= Math.min(chunkSize - 1, y + 1); j++) {
+                    for (int i = Math.max(0, x - 1); i <= Math.min(chunkSize - 1, x + 1); i++) {
+                        if (c.get(i, j) == TileGrid.NOTHING) {
+                            c.set(i, j, TileGrid.SAND);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package utils;
+
+import java.util.Random;
+
+/**
+ * A java.util.Random that produces exactly the same numbers for the same seed, but keeps its
+ * state in a plain field so that copy() can fork it in O(1). Random itself can only be copied
+ * by serializing it. Unlike Random it is not thread-safe, and a copy does not carry over the
+ * second half of a pending nextGaussian pair.
+ */
+public class CopyableRandom extends Random {
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    // no initializer: Random's constructor sets this through setSeed before ours runs
+    private long state;
+
+    public CopyableRandom(long seed) {
+        super(seed);
+    }
+
+    private CopyableRandom(CopyableRandom other) {
+        super(0);
+        state = other.state;
+    }
+
+    /** A generator that continues with the same numbers this one would produce next. */
+    public CopyableRandom copy() {
+        return new CopyableRandom(this);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+}
@@ -0,0 +1,117 @@
+package core;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The set of free floor cells of a TileGrid, stored as grid indices in a packed int array.
+ * pos maps a grid index to its slot in the array (or -1), so add, remove and uniform
+ * sampling are all O(1); removal swaps the last cell into the freed slot.
+ */
+public class FloorIndex {
+    private int[] pos;
+    private int[] cells;
+    private int size;
+    private boolean shared;
+
+    public FloorIndex(int gridSize) {
+        pos = new int[gridSize];
+        Arrays.fill(pos, -1);
+        cells = new int[16];
+    }
+
+    private FloorIndex(FloorIndex other) {
+        pos = other.pos;
+        cells = other.cells;
+        size = other.size;
+        shared = true;
+        other.shared = true;
+    }
+
+    /**
+     * A copy with the same cells in the same order, so take picks the same cells. Made in
+     * O(1) like TileGrid.copy: both share their arrays until either of them is changed.
+     */
+    public FloorIndex copy() {
+        return new FloorIndex(this);
+    }
+
+    // called before every write while the arrays may still be shared with a copy
+    private void own() {
+        if (shared) {
+            pos = pos.clone();
+            cells = Arrays.copyOf(cells, Math.max(16, size));
+            shared = false;
+        }
+    }
+
+    /** Rough heap size of the index: both arrays, whether shared or not. */
+    public long bytes() {
+        return 4L * (pos.length + cells.length);
+    }
+
+    /** Indexes every FLOWER cell of grid. */
+    public static FloorIndex of(TileGrid grid) {
+        FloorIndex index = new FloorIndex(grid.getWidth() * grid.getHeight());
+        index.rebuild(grid);
+        return index;
+    }
+
+    /** Forgets every cell, then indexes every FLOWER cell of grid, reusing the arrays. */
+    public void rebuild(TileGrid grid) {
+        own();
+        for (int i = 0; i < size; i++) {
+            pos[cells[i]] = -1;
+        }
+        size = 0;
+        byte[] ids = grid.cells();
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == TileGrid.FLOWER) {
+                add(i);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int cell) {
+        return pos[cell] != -1;
+    }
+
+    public void add(int cell) {
+        if (pos[cell] != -1) {
+            return;
+        }
+        own();
+        if (size == cells.length) {
+            cells = Arrays.copyOf(cells, size * 2);
+        }
+        cells[size] = cell;
+        pos[cell] = size;
+        size++;
+    }
+
+    public void remove(int cell) {
+        int slot = pos[cell];
+        if (slot == -1) {
+            return;
+        }
+        own();
+        int last = cells[--size];
+        cells[slot] = last;
+        pos[last] = slot;
+        pos[cell] = -1;
+    }
+
+    /** Removes and returns a uniformly random free cell. */
+    public int take(Random r) {
+        if (size == 0) {
+            throw new IllegalStateException("No free floor left to place an avatar on.");
+        }
+        int cell = cells[r.nextInt(size)];
+        remove(cell);
+        return cell;
+    }
+}
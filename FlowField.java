@@ -0,0 +1,434 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Distance from every cell of a TileGrid to one source cell, usually the player, for any
+ * number of agents to walk towards it: each agent looks up the neighbour closest to the
+ * source in O(1) instead of running a search of its own. Moves are the same as in
+ * World.move, one step onto any cell that is not a wall, so all steps cost the same and
+ * the field is built with one breadth-first search.
+ *
+ * The field is kept up to date incrementally instead of being rebuilt:
+ *
+ *   source moves one step  On a grid every cell's distance to two neighbouring cells differs
+ *                          by exactly one. Only the cells that get closer, those whose
+ *                          shortest way to the old source goes through the new one, are
+ *                          visited; everything else gets further by one through offset.
+ *   wall added             Cells that have no other neighbour one step closer lose their
+ *                          distance, level by level from the wall, and are refilled from the
+ *                          cells around them, nearest first.
+ *   wall removed           The new cell takes its best neighbour's distance plus one and
+ *                          passes any improvement on, breadth first.
+ *
+ * Other changes (a jump of more than one step, or a first source) rebuild the field.
+ */
+public class FlowField {
+    public static final int UNREACHABLE = -1;
+    // stored value of cells that cannot reach the source
+    private static final int NONE = Integer.MAX_VALUE;
+    // renormalise the stored values before offset gets anywhere near overflowing them
+    private static final int MAX_OFFSET = 1 << 28;
+
+    private final TileGrid grid;
+    private final int width;
+    private final int height;
+    // distance of cell i is stored[i] + offset, or unreachable if stored[i] == NONE
+    private final int[] stored;
+    private final boolean[] wall;
+    private final int[] queue;
+    private final int[] mark;
+    // refill's starting cells for addWall, (distance << 32) | cell
+    private final long[] seeds;
+    private int stamp;
+    private int offset;
+    private int source = -1;
+
+    public FlowField(TileGrid grid) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        this.height = grid.getHeight();
+        int cells = width * height;
+        stored = new int[cells];
+        wall = new boolean[cells];
+        for (int i = 0; i < cells; i++) {
+            wall[i] = grid.getAt(i) == TileGrid.SAND;
+        }
+        queue = new int[cells];
+        mark = new int[cells];
+        seeds = new long[cells];
+        Arrays.fill(stored, NONE);
+    }
+
+    /** A field over world's tiles with the player as its source. */
+    public FlowField(World world) {
+        this(world.getGrid());
+        setSource(world.getPlayerX(), world.getPlayerY());
+    }
+
+    public int getSourceX() {
+        return source % width;
+    }
+
+    public int getSourceY() {
+        return source / width;
+    }
+
+    /** Steps from (x, y) to the source, or UNREACHABLE for walls and cut off cells. */
+    public int distance(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return UNREACHABLE;
+        }
+        int value = stored[y * width + x];
+        return value == NONE ? UNREACHABLE : value + offset;
+    }
+
+    /**
+     * The neighbour of grid index cell one step closer to the source, or -1 if cell is the
+     * source or cannot reach it. Ties go up, right, down, left, in that order.
+     */
+    public int nextCell(int cell) {
+        int value = stored[cell];
+        if (value == NONE || cell == source) {
+            return -1;
+        }
+        int x = cell % width;
+        if (cell + width < stored.length && stored[cell + width] == value - 1) {
+            return cell + width;
+        }
+        if (x + 1 < width && stored[cell + 1] == value - 1) {
+            return cell + 1;
+        }
+        if (cell - width >= 0 && stored[cell - width] == value - 1) {
+            return cell - width;
+        }
+        if (x > 0 && stored[cell - 1] == value - 1) {
+            return cell - 1;
+        }
+        return -1;
+    }
+
+    /** The key ('w', 'a', 's' or 'd') that moves from (x, y) towards the source, or 0. */
+    public char direction(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return 0;
+        }
+        int cell = y * width + x;
+        int next = nextCell(cell);
+        if (next < 0) {
+            return 0;
+        }
+        return next == cell + width ? 'w' : next == cell + 1 ? 'd' : next == cell - width ? 's' : 'a';
+    }
+
+    /** Moves the source to (x, y), updating the field in place when it moved by one step. */
+    public void setSource(int x, int y) {
+        int cell = y * width + x;
+        if (cell == source) {
+            return;
+        }
+        if (wall[cell]) {
+            throw new IllegalArgumentException("Source (" + x + ", " + y + ") is a wall.");
+        }
+        if (source >= 0 && Math.abs(x - getSourceX()) + Math.abs(y - getSourceY()) == 1) {
+            step(cell);
+        } else {
+            rebuild(cell);
+        }
+    }
+
+    private void rebuild(int cell) {
+        Arrays.fill(stored, NONE);
+        offset = 0;
+        source = cell;
+        stored[cell] = 0;
+        queue[0] = cell;
+        spread(0, 1);
+    }
+
+    /**
+     * Breadth-first search from the cells in queue[head..tail), which must be in order of
+     * distance, lowering every neighbour it can.
+     */
+    private void spread(int head, int tail) {
+        while (head < tail) {
+            int cell = queue[head++];
+            int next = stored[cell] + 1;
+            int x = cell % width;
+            if (cell + width < stored.length) {
+                tail = lower(cell + width, next, tail);
+            }
+            if (x + 1 < width) {
+                tail = lower(cell + 1, next, tail);
+            }
+            if (cell - width >= 0) {
+                tail = lower(cell - width, next, tail);
+            }
+            if (x > 0) {
+                tail = lower(cell - 1, next, tail);
+            }
+        }
+    }
+
+    private int lower(int cell, int value, int tail) {
+        if (!wall[cell] && stored[cell] > value) {
+            stored[cell] = value;
+            queue[tail++] = cell;
+        }
+        return tail;
+    }
+
+    /** The source moves to the neighbouring cell next; see the class comment. */
+    private void step(int next) {
+        // collect the cells whose shortest way to the old source passes through next
+        int tail = 0;
+        nextStamp();
+        mark[next] = stamp;
+        queue[tail++] = next;
+        for (int head = 0; head < tail; head++) {
+            int cell = queue[head];
+            int further = stored[cell] + 1;
+            int x = cell % width;
+            if (cell + width < stored.length) {
+                tail = collect(cell + width, further, tail);
+            }
+            if (x + 1 < width) {
+                tail = collect(cell + 1, further, tail);
+            }
+            if (cell - width >= 0) {
+                tail = collect(cell - width, further, tail);
+            }
+            if (x > 0) {
+                tail = collect(cell - 1, further, tail);
+            }
+        }
+        // those get one closer, everything else one further
+        for (int i = 0; i < tail; i++) {
+            stored[queue[i]] -= 2;
+        }
+        offset++;
+        source = next;
+        if (offset > MAX_OFFSET) {
+            for (int i = 0; i < stored.length; i++) {
+                if (stored[i] != NONE) {
+                    stored[i] += offset;
+                }
+            }
+            offset = 0;
+        }
+    }
+
+    private int collect(int cell, int value, int tail) {
+        if (mark[cell] != stamp && stored[cell] == value && !wall[cell]) {
+            mark[cell] = stamp;
+            queue[tail++] = cell;
+        }
+        return tail;
+    }
+
+    /** Brings the field up to date after the tile at (x, y) changed, e.g. a door opened. */
+    public void tileChanged(int x, int y) {
+        int cell = y * width + x;
+        boolean isWall = grid.getAt(cell) == TileGrid.SAND;
+        if (isWall == wall[cell]) {
+            return;
+        }
+        wall[cell] = isWall;
+        if (cell == source) {
+            throw new IllegalArgumentException("Source (" + x + ", " + y + ") became a wall.");
+        }
+        if (source < 0) {
+            return;
+        }
+        if (isWall) {
+            addWall(cell);
+        } else {
+            removeWall(cell);
+        }
+    }
+
+    private void removeWall(int cell) {
+        int best = bestNeighbour(cell);
+        if (best == NONE) {
+            return;
+        }
+        stored[cell] = best + 1;
+        queue[0] = cell;
+        spread(0, 1);
+    }
+
+    private void addWall(int cell) {
+        int old = stored[cell];
+        stored[cell] = NONE;
+        if (old == NONE) {
+            return;
+        }
+        // find the cells left without a neighbour one step closer, nearest first: every
+        // candidate of one distance is queued before any of the next, so by the time one is
+        // looked at, all of the cells it could lean on have been decided
+        nextStamp();
+        int tail = pushDependants(cell, old + 1, 0);
+        int lost = 0;
+        for (int head = 0; head < tail; head++) {
+            int candidate = queue[head];
+            if (hasSupport(candidate)) {
+                continue;
+            }
+            // reuse the front of the queue, which has been read, for the lost cells
+            queue[lost++] = candidate;
+            mark[candidate] = -stamp;
+            tail = pushDependants(candidate, stored[candidate] + 1, tail);
+        }
+
+        // refill the lost cells from their neighbours that kept a distance, nearest first
+        int numSeeds = 0;
+        for (int i = 0; i < lost; i++) {
+            stored[queue[i]] = NONE;
+        }
+        for (int i = 0; i < lost; i++) {
+            int c = queue[i];
+            int best = bestNeighbour(c);
+            if (best != NONE) {
+                stored[c] = best + 1;
+                seeds[numSeeds++] = ((long) (best + 1) << 32) | c;
+            }
+        }
+        heapSort(seeds, numSeeds);
+        refill(numSeeds);
+    }
+
+    // queues the neighbours of cell at distance value that have not been queued yet
+    private int pushDependants(int cell, int value, int tail) {
+        int x = cell % width;
+        if (cell + width < stored.length) {
+            tail = pushDependant(cell + width, value, tail);
+        }
+        if (x + 1 < width) {
+            tail = pushDependant(cell + 1, value, tail);
+        }
+        if (cell - width >= 0) {
+            tail = pushDependant(cell - width, value, tail);
+        }
+        if (x > 0) {
+            tail = pushDependant(cell - 1, value, tail);
+        }
+        return tail;
+    }
+
+    private int pushDependant(int cell, int value, int tail) {
+        if (stored[cell] == value && mark[cell] != stamp && mark[cell] != -stamp
+                && cell != source) {
+            mark[cell] = stamp;
+            queue[tail++] = cell;
+        }
+        return tail;
+    }
+
+    // whether a neighbour one step closer to the source kept its distance
+    private boolean hasSupport(int cell) {
+        int closer = stored[cell] - 1;
+        int x = cell % width;
+        return cell + width < stored.length && supports(cell + width, closer)
+                || x + 1 < width && supports(cell + 1, closer)
+                || cell - width >= 0 && supports(cell - width, closer)
+                || x > 0 && supports(cell - 1, closer);
+    }
+
+    private boolean supports(int cell, int closer) {
+        return stored[cell] == closer && mark[cell] != -stamp && !wall[cell];
+    }
+
+    private int bestNeighbour(int cell) {
+        int best = NONE;
+        int x = cell % width;
+        if (cell + width < stored.length) {
+            best = Math.min(best, stored[cell + width]);
+        }
+        if (x + 1 < width) {
+            best = Math.min(best, stored[cell + 1]);
+        }
+        if (cell - width >= 0) {
+            best = Math.min(best, stored[cell - width]);
+        }
+        if (x > 0) {
+            best = Math.min(best, stored[cell - 1]);
+        }
+        return best;
+    }
+
+    /**
+     * Breadth-first search seeded with cells at different distances: seeds (sorted, distance
+     * in the high half) are merged into the queue as the search reaches their distance.
+     */
+    private void refill(int numSeeds) {
+        int head = 0;
+        int tail = 0;
+        int next = 0;
+        while (next < numSeeds || head < tail) {
+            int cell;
+            if (head == tail || next < numSeeds && (int) (seeds[next] >> 32) <= stored[queue[head]]) {
+                long seed = seeds[next++];
+                cell = (int) seed;
+                if (stored[cell] != (int) (seed >> 32)) {
+                    // reached sooner from another seed
+                    continue;
+                }
+            } else {
+                cell = queue[head++];
+            }
+            int value = stored[cell] + 1;
+            int x = cell % width;
+            if (cell + width < stored.length) {
+                tail = lower(cell + width, value, tail);
+            }
+            if (x + 1 < width) {
+                tail = lower(cell + 1, value, tail);
+            }
+            if (cell - width >= 0) {
+                tail = lower(cell - width, value, tail);
+            }
+            if (x > 0) {
+                tail = lower(cell - 1, value, tail);
+            }
+        }
+    }
+
+    /**
+     * Sorts a[0..n) in place. Arrays.sort may allocate a merge buffer for big, partly
+     * sorted inputs, which is what seeds usually are.
+     */
+    private static void heapSort(long[] a, int n) {
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(a, i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            long top = a[0];
+            a[0] = a[end];
+            a[end] = top;
+            siftDown(a, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] a, int i, int n) {
+        long value = a[i];
+        while (2 * i + 1 < n) {
+            int child = 2 * i + 1;
+            if (child + 1 < n && a[child + 1] > a[child]) {
+                child++;
+            }
+            if (a[child] <= value) {
+                break;
+            }
+            a[i] = a[child];
+            i = child;
+        }
+        a[i] = value;
+    }
+
+    private void nextStamp() {
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(mark, 0);
+            stamp = 1;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Histograms of how long each part of a frame took. Durations go into log-linear buckets:
+ * one group per power of two nanoseconds, split into SUB_BUCKETS equal steps, so any
+ * percentile is exact to within 1 / SUB_BUCKETS (12.5%) while recording is O(1) and never
+ * allocates. Recorded by the game loop and safe to query from any thread while it runs.
+ */
+public class FrameStats {
+    public enum Phase {
+        /** Draining input and running simulation ticks. */
+        SIMULATE,
+        /** Drawing the frame into the back buffer. */
+        RENDER,
+        /** Showing the back buffer. */
+        PRESENT,
+        /** Start of one frame to the start of the next, sleep included. */
+        FRAME,
+        /** A key arriving to the tick that applied it. */
+        INPUT_LATENCY,
+    }
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final long[][] counts = new long[Phase.values().length][BUCKETS];
+    private final long[] totals = new long[Phase.values().length];
+    private final long[] sums = new long[Phase.values().length];
+    private final long[] maxima = new long[Phase.values().length];
+
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // the largest duration that falls into bucket b
+    private static long upperBound(int b) {
+        if (b < SUB_BUCKETS) {
+            return b;
+        }
+        int exponent = b / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = b % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    public synchronized void record(Phase phase, long nanos) {
+        int p = phase.ordinal();
+        counts[p][bucket(nanos)]++;
+        totals[p]++;
+        sums[p] += nanos;
+        maxima[p] = Math.max(maxima[p], nanos);
+    }
+
+    public synchronized long count(Phase phase) {
+        return totals[phase.ordinal()];
+    }
+
+    public synchronized long max(Phase phase) {
+        return maxima[phase.ordinal()];
+    }
+
+    public synchronized double mean(Phase phase) {
+        int p = phase.ordinal();
+        return totals[p] == 0 ? 0 : (double) sums[p] / totals[p];
+    }
+
+    /**
+     * The duration in nanoseconds that fraction (0 to 1) of the recorded durations do not
+     * exceed, rounded up to the end of its bucket; 0 if nothing was recorded.
+     */
+    public synchronized long percentile(Phase phase, double fraction) {
+        int p = phase.ordinal();
+        if (totals[p] == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * totals[p]));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[p][b];
+            if (seen >= rank) {
+                return Math.min(upperBound(b), maxima[p]);
+            }
+        }
+        return maxima[p];
+    }
+
+    public synchronized void reset() {
+        for (long[] c : counts) {
+            Arrays.fill(c, 0);
+        }
+        Arrays.fill(totals, 0);
+        Arrays.fill(sums, 0);
+        Arrays.fill(maxima, 0);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            sb.append(String.format(
+                    "%-13s n=%-7d mean=%8.3fms p50=%8.3fms p99=%8.3fms max=%8.3fms%n",
+                    phase, count(phase), mean(phase) / 1e6, percentile(phase, 0.5) / 1e6,
+                    percentile(phase, 0.99) / 1e6, max(phase) / 1e6));
+        }
+        return sb.toString();
+    }
+}
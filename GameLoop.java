@@ -0,0 +1,159 @@
+package core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed-timestep game loop. The simulation advances in ticks of a fixed length whatever the
+ * frame rate: each frame runs the ticks that have come due (at most MAX_CATCH_UP, so a long
+ * stall does not turn into a burst), renders and presents once, then sleeps until the next
+ * frame is due, waking up in between for any tick that falls due. Every tick first drains
+ * all queued input, so keys are never limited to one per frame and wait at most one tick.
+ *
+ * Keys reach the loop through submit, which any thread may call; startInputThread runs a
+ * daemon that moves keys from a KeyReader into the queue as soon as they arrive. Time spent
+ * in each phase goes into a FrameStats.
+ */
+public class GameLoop {
+    public static final int MAX_CATCH_UP = 5;
+
+    /** What the loop drives. Called on the loop thread only. */
+    public interface Game {
+        /** Applies one key. Returning false ends the loop after the current frame. */
+        boolean onKey(char key);
+
+        /** Advances everything that moves on its own by one tick. */
+        void tick();
+
+        void render();
+
+        void present();
+    }
+
+    /** Where the input thread reads keys from, e.g. StdDraw's key queue. */
+    public interface KeyReader {
+        boolean hasNextKey();
+
+        char nextKey();
+    }
+
+    private record KeyPress(char key, long nanos) {
+    }
+
+    private final Game game;
+    private final long tickNanos;
+    private final long frameNanos;
+    private final FrameStats stats = new FrameStats();
+    private final ConcurrentLinkedQueue<KeyPress> input = new ConcurrentLinkedQueue<>();
+    private volatile boolean running;
+    private long ticks;
+    private long frames;
+    private long nextTick;
+    private long simulateNanos;
+
+    public GameLoop(Game game, int ticksPerSecond, int framesPerSecond) {
+        this.game = game;
+        this.tickNanos = 1_000_000_000L / ticksPerSecond;
+        this.frameNanos = 1_000_000_000L / framesPerSecond;
+    }
+
+    public FrameStats getStats() {
+        return stats;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /** Queues a key for the next tick. Safe to call from any thread. */
+    public void submit(char key) {
+        input.add(new KeyPress(key, System.nanoTime()));
+    }
+
+    /**
+     * Starts a daemon thread that polls reader every pollMillis and submits every key it has,
+     * until the loop stops.
+     */
+    public Thread startInputThread(KeyReader reader, long pollMillis) {
+        running = true;
+        Thread thread = new Thread(() -> {
+            while (running) {
+                while (reader.hasNextKey()) {
+                    submit(reader.nextKey());
+                }
+                LockSupport.parkNanos(pollMillis * 1_000_000L);
+            }
+        }, "game-input");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /** Asks the loop to return after the current frame. Safe to call from any thread. */
+    public void stop() {
+        running = false;
+    }
+
+    /** Runs frames on the calling thread until a key handler returns false or stop is called. */
+    public void run() {
+        running = true;
+        nextTick = System.nanoTime();
+        long frameStart = nextTick;
+        while (running) {
+            simulateNanos = 0;
+            int due = 0;
+            for (long now = frameStart; now >= nextTick && due < MAX_CATCH_UP; due++) {
+                runTick(now);
+                now = System.nanoTime();
+                if (due == MAX_CATCH_UP - 1 && now >= nextTick) {
+                    // too far behind to catch up: drop the backlog instead of spiralling
+                    nextTick = now + tickNanos;
+                }
+            }
+            long rendering = System.nanoTime();
+            game.render();
+            long rendered = System.nanoTime();
+            game.present();
+            long presented = System.nanoTime();
+            stats.record(FrameStats.Phase.RENDER, rendered - rendering);
+            stats.record(FrameStats.Phase.PRESENT, presented - rendered);
+            frames++;
+
+            // sleep out the rest of the frame, waking up for any tick that falls due meanwhile
+            long deadline = frameStart + frameNanos;
+            for (long now = System.nanoTime(); now < deadline && running; now = System.nanoTime()) {
+                if (now >= nextTick) {
+                    runTick(now);
+                } else {
+                    LockSupport.parkNanos(Math.min(nextTick, deadline) - now);
+                }
+            }
+            stats.record(FrameStats.Phase.SIMULATE, simulateNanos);
+            long next = System.nanoTime();
+            stats.record(FrameStats.Phase.FRAME, next - frameStart);
+            frameStart = next;
+        }
+    }
+
+    private void runTick(long now) {
+        if (!running) {
+            return;
+        }
+        nextTick += tickNanos;
+        for (KeyPress press = input.poll(); press != null; press = input.poll()) {
+            stats.record(FrameStats.Phase.INPUT_LATENCY, now - press.nanos());
+            if (!game.onKey(press.key())) {
+                // the game is over: leave any keys typed after the quit unapplied
+                running = false;
+                return;
+            }
+        }
+        game.tick();
+        ticks++;
+        simulateNanos += System.nanoTime() - now;
+    }
+}
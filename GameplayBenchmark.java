@@ -0,0 +1,81 @@
+package bench;
+
+import core.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything that happens after generation: single moves and a save and load round trip
+ * through a temporary file. AutograderBenchmark covers replaying input strings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameplayBenchmark {
+    @Param({"50", "500", "2000"})
+    public int size;
+
+    private static final long SEED = 42;
+    private World world;
+    private char[] keys;
+    private int nextKey;
+    private File saveFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random r = new Random(SEED);
+        keys = new char[4096];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "wasd".charAt(r.nextInt(4));
+        }
+        saveFile = File.createTempFile("world_state", ".bench");
+    }
+
+    @Setup(Level.Iteration)
+    public void newWorld() {
+        world = new World(size, size, SEED, GenerationBenchmark.roomsFor(size));
+        world.addAvatar();
+        nextKey = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        saveFile.delete();
+    }
+
+    @Benchmark
+    public void move() {
+        world.move(keys[nextKey]);
+        nextKey = (nextKey + 1) & (keys.length - 1);
+        if (nextKey == 0) {
+            // move records every action; drop them once per pass over the keys, so the list
+            // stays small and never grows (or copies itself) during the iteration
+            world.getRecordedActions().clear();
+        }
+    }
+
+    @Benchmark
+    public World saveAndLoad() throws IOException {
+        world.saveWorld(saveFile.getPath());
+        return World.loadWorld(saveFile.getPath());
+    }
+}
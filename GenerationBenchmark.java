@@ -0,0 +1,92 @@
+package bench;
+
+import core.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * World generation, one phase at a time. Every phase needs the output of the ones before it,
+ * so each benchmark runs the phases up to and including its own; the cost of a phase is the
+ * difference between its score and the previous one. Scores for a phase that is too close to
+ * its predecessor to tell apart are a hint to add a bigger size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerationBenchmark {
+    @Param({"50", "500", "2000"})
+    public int size;
+
+    private static final long SEED = 1234567890123456789L;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        pool = ForkJoinPool.commonPool();
+    }
+
+    @Benchmark
+    public World blank() {
+        return World.blank(size, size, SEED);
+    }
+
+    @Benchmark
+    public World makeRooms() {
+        World world = World.blank(size, size, SEED);
+        world.makeRooms(roomsFor(size));
+        return world;
+    }
+
+    @Benchmark
+    public World makeHallways() {
+        World world = makeRooms();
+        world.makeHallways();
+        return world;
+    }
+
+    @Benchmark
+    public World addWallsAround() {
+        World world = makeHallways();
+        world.addWallsAround();
+        return world;
+    }
+
+    @Benchmark
+    public World addWallsAroundScalar() {
+        World world = makeHallways();
+        world.addWallsAroundScalar();
+        return world;
+    }
+
+    @Benchmark
+    public World addAvatars() {
+        World world = addWallsAround();
+        world.addAvatars(20);
+        return world;
+    }
+
+    @Benchmark
+    public World parallel() {
+        return new World(size, size, SEED, roomsFor(size), pool);
+    }
+
+    // same room density as the 10 to 19 rooms of a 50x50 world
+    static int roomsFor(int size) {
+        return Math.max(15, size * size / 170);
+    }
+}
@@ -0,0 +1,218 @@
+package core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * Decides which rooms get hallways between them. Builds a sparse proximity graph that links
+ * every room centre to its k nearest neighbours (found through a uniform bucket grid), takes
+ * a minimum spanning tree of it with Kruskal and a union-find, then adds a few of the left
+ * over edges back as loops. If the k-nearest graph happens to be disconnected, k is doubled
+ * until it is not, so every room is always reachable.
+ *
+ * Edge weights are Manhattan distances between centres, a proxy for corridor length: carve
+ * digs between random interior points of the two rooms, not between their centres.
+ */
+public class HallwayPlanner {
+    private static final int INDEX_BITS = 20;
+    private static final int MAX_ROOMS = 1 << INDEX_BITS;
+    private static final long INDEX_MASK = MAX_ROOMS - 1;
+
+    /**
+     * Returns the hallways as pairs of room indices, two ints per hallway: first the spanning
+     * tree edges, shortest first, then up to extraEdges loop edges.
+     */
+    public static int[] plan(List<Room> rooms, int k, int extraEdges, RandomGenerator r) {
+        int n = rooms.size();
+        if (n >= MAX_ROOMS) {
+            throw new IllegalArgumentException("Too many rooms for the hallway planner: " + n);
+        }
+        if (n < 2) {
+            return new int[0];
+        }
+        int[] cx = new int[n];
+        int[] cy = new int[n];
+        for (int i = 0; i < n; i++) {
+            Room room = rooms.get(i);
+            cx[i] = room.x() + room.width() / 2;
+            cy[i] = room.y() + room.height() / 2;
+        }
+
+        for (int neighbours = Math.min(k, n - 1);; neighbours = Math.min(neighbours * 2, n - 1)) {
+            long[] edges = nearestEdges(cx, cy, neighbours);
+            Arrays.sort(edges);
+            int[] parent = new int[n];
+            for (int i = 0; i < n; i++) {
+                parent[i] = i;
+            }
+            int[] tree = new int[2 * (n - 1)];
+            boolean[] used = new boolean[edges.length];
+            int treeEdges = 0;
+            for (int e = 0; e < edges.length && treeEdges < n - 1; e++) {
+                int a = (int) ((edges[e] >>> INDEX_BITS) & INDEX_MASK);
+                int b = (int) (edges[e] & INDEX_MASK);
+                if (union(parent, a, b)) {
+                    tree[2 * treeEdges] = a;
+                    tree[2 * treeEdges + 1] = b;
+                    treeEdges++;
+                    used[e] = true;
+                }
+            }
+            if (treeEdges == n - 1) {
+                return addLoops(tree, edges, used, extraEdges, r);
+            }
+        }
+    }
+
+    private static int[] addLoops(int[] tree, long[] edges, boolean[] used, int extraEdges,
+                                  RandomGenerator r) {
+        // every undirected edge shows up once per endpoint that listed it; keep one copy
+        long[] spare = new long[edges.length];
+        int numSpare = 0;
+        for (int e = 0; e < edges.length;) {
+            int end = e;
+            boolean inTree = false;
+            while (end < edges.length && edges[end] == edges[e]) {
+                inTree |= used[end];
+                end++;
+            }
+            if (!inTree) {
+                spare[numSpare++] = edges[e];
+            }
+            e = end;
+        }
+        int loops = Math.min(extraEdges, numSpare);
+        int[] plan = Arrays.copyOf(tree, tree.length + 2 * loops);
+        for (int i = 0; i < loops; i++) {
+            int pick = i + r.nextInt(numSpare - i);
+            long edge = spare[pick];
+            spare[pick] = spare[i];
+            plan[tree.length + 2 * i] = (int) ((edge >>> INDEX_BITS) & INDEX_MASK);
+            plan[tree.length + 2 * i + 1] = (int) (edge & INDEX_MASK);
+        }
+        return plan;
+    }
+
+    /**
+     * Links every centre to its k nearest others. Each edge is packed as
+     * (distance, lower index, higher index) so that sorting the longs sorts by length and
+     * breaks ties the same way every time.
+     */
+    private static long[] nearestEdges(int[] cx, int[] cy, int k) {
+        int n = cx.length;
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, cx[i]);
+            minY = Math.min(minY, cy[i]);
+            maxX = Math.max(maxX, cx[i]);
+            maxY = Math.max(maxY, cy[i]);
+        }
+        // about one centre per bucket on average
+        long area = (long) (maxX - minX + 1) * (maxY - minY + 1);
+        int cell = Math.max(1, (int) Math.sqrt((double) area / n));
+        int cols = (maxX - minX) / cell + 1;
+        int rows = (maxY - minY) / cell + 1;
+        int[] head = new int[cols * rows];
+        int[] next = new int[n];
+        Arrays.fill(head, -1);
+        for (int i = 0; i < n; i++) {
+            int b = ((cy[i] - minY) / cell) * cols + (cx[i] - minX) / cell;
+            next[i] = head[b];
+            head[b] = i;
+        }
+
+        long[] edges = new long[n * k];
+        int[] best = new int[k];
+        int[] bestDist = new int[k];
+        for (int i = 0; i < n; i++) {
+            int bx = (cx[i] - minX) / cell;
+            int by = (cy[i] - minY) / cell;
+            int found = 0;
+            for (int ring = 0;; ring++) {
+                if (found == k && (long) (ring - 1) * cell > bestDist[k - 1]) {
+                    break;
+                }
+                if (bx - ring < 0 && by - ring < 0 && bx + ring >= cols && by + ring >= rows) {
+                    break;
+                }
+                for (int j = by - ring; j <= by + ring; j++) {
+                    if (j < 0 || j >= rows) {
+                        continue;
+                    }
+                    boolean edgeRow = j == by - ring || j == by + ring;
+                    int step = edgeRow ? 1 : Math.max(1, 2 * ring);
+                    for (int x = bx - ring; x <= bx + ring; x += step) {
+                        if (x < 0 || x >= cols) {
+                            continue;
+                        }
+                        for (int o = head[j * cols + x]; o != -1; o = next[o]) {
+                            if (o == i) {
+                                continue;
+                            }
+                            int d = Math.abs(cx[i] - cx[o]) + Math.abs(cy[i] - cy[o]);
+                            found = insert(best, bestDist, found, o, d);
+                        }
+                    }
+                }
+            }
+            for (int m = 0; m < k; m++) {
+                int a = Math.min(i, best[m]);
+                int b = Math.max(i, best[m]);
+                edges[i * k + m] = ((long) bestDist[m] << (2 * INDEX_BITS))
+                        | ((long) a << INDEX_BITS) | b;
+            }
+        }
+        return edges;
+    }
+
+    // keeps best/bestDist sorted by distance, holding at most best.length entries
+    private static int insert(int[] best, int[] bestDist, int found, int o, int d) {
+        int k = best.length;
+        if (found == k && d >= bestDist[k - 1]) {
+            return found;
+        }
+        int at = found == k ? k - 1 : found;
+        while (at > 0 && bestDist[at - 1] > d) {
+            best[at] = best[at - 1];
+            bestDist[at] = bestDist[at - 1];
+            at--;
+        }
+        best[at] = o;
+        bestDist[at] = d;
+        return found == k ? k : found + 1;
+    }
+
+    private static int find(int[] parent, int a) {
+        while (parent[a] != a) {
+            parent[a] = parent[parent[a]];
+            a = parent[a];
+        }
+        return a;
+    }
+
+    private static boolean union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra == rb) {
+            return false;
+        }
+        parent[Math.max(ra, rb)] = Math.min(ra, rb);
+        return true;
+    }
+
+    /** Digs an L-shaped corridor: along row y0 from x0 to x1, then along column x1 to y1. */
+    public static void carve(TileGrid grid, int x0, int y0, int x1, int y1) {
+        grid.fillRow(y0, Math.min(x0, x1), Math.max(x0, x1), TileGrid.FLOWER);
+        grid.fillColumn(x1, Math.min(y0, y1), Math.max(y0, y1), TileGrid.FLOWER);
+    }
+
+    /** carve with raw writes, for corridors dug concurrently; the grid must be rehashed after. */
+    public static void carveRaw(TileGrid grid, int x0, int y0, int x1, int y1) {
+        grid.fillRowRaw(y0, Math.min(x0, x1), Math.max(x0, x1), TileGrid.FLOWER);
+        grid.fillColumnRaw(x1, Math.min(y0, y1), Math.max(y0, y1), TileGrid.FLOWER);
+    }
+}
@@ -0,0 +1,84 @@
+package core;
+
+import edu.princeton.cs.algs4.StdDraw;
+import tileengine.Camera;
+import tileengine.TETile;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * The line of text along the top of the window: what the mouse hovers over, the frame time
+ * and the clock. It is drawn every frame, so every String on it is kept between frames and
+ * only rebuilt when what it shows changes: the hover text when the hovered tile changes, the
+ * clock and frame time once a second. A frame where neither happens allocates nothing here.
+ */
+public class Hud {
+    private static final DateTimeFormatter CLOCK = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String HOVER_PREFIX = "Tile: ";
+
+    private TETile hovered;
+    private String hoverText = HOVER_PREFIX;
+    // second each text was last built for, kept apart so either may be asked for first
+    private long clockSecond = Long.MIN_VALUE;
+    private long statsSecond = Long.MIN_VALUE;
+    private String clockText = "";
+    private String statsText = "";
+
+    /** Text for the tile under the mouse, or for none if tile is null. */
+    public String hoverText(TETile tile) {
+        if (tile != hovered) {
+            hovered = tile;
+            hoverText = tile == null ? HOVER_PREFIX : HOVER_PREFIX + tile.description();
+        }
+        return hoverText;
+    }
+
+    /** The wall clock at millis, to the second. */
+    public String clockText(long millis) {
+        long now = Math.floorDiv(millis, 1000);
+        if (now != clockSecond) {
+            clockSecond = now;
+            clockText = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis),
+                    ZoneId.systemDefault()).format(CLOCK);
+        }
+        return clockText;
+    }
+
+    /** The 95th percentile frame time in stats, as of the last whole second. */
+    public String statsText(FrameStats stats, long millis) {
+        long now = Math.floorDiv(millis, 1000);
+        if (now != statsSecond) {
+            statsSecond = now;
+            statsText = String.format("frame p95 %.1f ms",
+                    stats.percentile(FrameStats.Phase.FRAME, 0.95) / 1e6);
+        }
+        return statsText;
+    }
+
+    /**
+     * Draws the HUD on the top row of a width by height window showing world through camera.
+     * stats may be null to leave out the frame time. Does not show the frame. The text stays
+     * within row height - 1, so TERenderer.markRowDirty(height - 1) wipes it next frame.
+     */
+    public void draw(World world, Camera camera, FrameStats stats, int width, int height) {
+        double mouseX = StdDraw.mouseX();
+        double mouseY = StdDraw.mouseY();
+        TETile tile = null;
+        if (mouseX >= 0 && mouseX < width && mouseY >= 0 && mouseY < height) {
+            tile = world.tile((long) Math.floor(camera.getX() + mouseX),
+                    (long) Math.floor(camera.getY() + mouseY));
+        }
+        long millis = System.currentTimeMillis();
+        // centred on the top row rather than on its bottom edge, which would spill into the next
+        double y = height - 0.5;
+        StdDraw.setPenColor(StdDraw.WHITE);
+        StdDraw.textLeft(1, y, hoverText(tile));
+        if (stats != null) {
+            StdDraw.text(width / 2.0, y, statsText(stats, millis));
+        }
+        StdDraw.textRight(width - 1, y, clockText(millis));
+    }
+}
@@ -0,0 +1,107 @@
+package core;
+
+import tileengine.TETile;
+
+import java.util.Arrays;
+
+/**
+ * The moves of many inputs for one seed, stored as a trie so that inputs sharing a prefix
+ * share its nodes. evaluate walks the trie depth first, simulating every edge once however
+ * many inputs run through it, and copies the world only at nodes where inputs branch apart.
+ * A suite of inputs that extend each other then costs about its number of distinct prefixes
+ * instead of the sum of its input lengths.
+ *
+ * Only W, A, S and D are moves; like AutograderBuddy.processMoves, other characters are
+ * skipped.
+ */
+class InputTrie {
+    private static final String MOVES = "WASD";
+
+    // children[4 * node + m] is the child reached by MOVES.charAt(m), or 0 for none;
+    // node 0 is the root, which is nobody's child
+    private int[] children = new int[4 * 16];
+    private int[] firstEnd = new int[16];
+    private int numNodes = 1;
+    // inputs ending at the same node form a linked list: firstEnd, then nextEnd
+    private int[] endInput = new int[16];
+    private int[] nextEnd = new int[16];
+    private int numEnds;
+
+    InputTrie() {
+        Arrays.fill(firstEnd, -1);
+    }
+
+    /** Files input number index under the node its moves lead to. */
+    void add(int index, String moves) {
+        int node = 0;
+        for (int i = 0; i < moves.length(); i++) {
+            int m = MOVES.indexOf(moves.charAt(i));
+            if (m < 0) {
+                continue;
+            }
+            int child = children[4 * node + m];
+            if (child == 0) {
+                child = newNode();
+                children[4 * node + m] = child;
+            }
+            node = child;
+        }
+        if (numEnds == endInput.length) {
+            endInput = Arrays.copyOf(endInput, numEnds * 2);
+            nextEnd = Arrays.copyOf(nextEnd, numEnds * 2);
+        }
+        endInput[numEnds] = index;
+        nextEnd[numEnds] = firstEnd[node];
+        firstEnd[node] = numEnds++;
+    }
+
+    private int newNode() {
+        if (numNodes == firstEnd.length) {
+            firstEnd = Arrays.copyOf(firstEnd, numNodes * 2);
+            Arrays.fill(firstEnd, numNodes, numNodes * 2, -1);
+            children = Arrays.copyOf(children, 4 * numNodes * 2);
+        }
+        return numNodes++;
+    }
+
+    /** Plays every filed input on top of root, which it may change, and stores its tiles. */
+    void evaluate(World root, TETile[][][] results) {
+        int[] nodeStack = new int[16];
+        World[] worldStack = new World[16];
+        nodeStack[0] = 0;
+        worldStack[0] = root;
+        int top = 1;
+        while (top > 0) {
+            top--;
+            int node = nodeStack[top];
+            World world = worldStack[top];
+            worldStack[top] = null;
+
+            int last = -1;
+            for (int m = 0; m < 4; m++) {
+                if (children[4 * node + m] != 0) {
+                    last = m;
+                }
+            }
+            for (int e = firstEnd[node]; e != -1; e = nextEnd[e]) {
+                boolean keepsWorld = last == -1 && nextEnd[e] == -1;
+                results[endInput[e]] = keepsWorld ? world.getTiles() : world.copy().getTiles();
+            }
+            if (top + 4 > nodeStack.length) {
+                nodeStack = Arrays.copyOf(nodeStack, nodeStack.length * 2);
+                worldStack = Arrays.copyOf(worldStack, worldStack.length * 2);
+            }
+            for (int m = 0; m <= last; m++) {
+                int child = children[4 * node + m];
+                if (child == 0) {
+                    continue;
+                }
+                World next = m == last ? world : world.copy();
+                next.move(MOVES.charAt(m));
+                nodeStack[top] = child;
+                worldStack[top] = next;
+                top++;
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A set of primitive longs using open addressing with linear probing. add, remove and
+ * contains are expected O(1) and never box. Removal shifts later entries of the probe run
+ * back instead of leaving tombstones, so lookups stay short after many removals.
+ */
+public class LongHashSet {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean hasEmptyKey;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    /** A copy of other with the same capacity, made with a single array copy. */
+    public LongHashSet(LongHashSet other) {
+        keys = other.keys.clone();
+        mask = other.mask;
+        size = other.size;
+        hasEmptyKey = other.hasEmptyKey;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int slot(long key) {
+        return (int) RandomUtils.mix(key) & mask;
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return hasEmptyKey;
+        }
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return true;
+            }
+            if (k == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /** Adds key and returns true if it was not already present. */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (hasEmptyKey) {
+                return false;
+            }
+            hasEmptyKey = true;
+            size++;
+            return true;
+        }
+        int i = slot(key);
+        for (long k = keys[i]; k != EMPTY; k = keys[i]) {
+            if (k == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    /** Removes key and returns true if it was present. */
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!hasEmptyKey) {
+                return false;
+            }
+            hasEmptyKey = false;
+            size--;
+            return true;
+        }
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == EMPTY) {
+                return false;
+            }
+            if (k == key) {
+                shiftKeys(i);
+                size--;
+                return true;
+            }
+        }
+    }
+
+    // close the gap at pos by moving back any later entry whose home slot allows it
+    private void shiftKeys(int pos) {
+        while (true) {
+            int last = pos;
+            long curr;
+            pos = (pos + 1) & mask;
+            while (true) {
+                curr = keys[pos];
+                if (curr == EMPTY) {
+                    keys[last] = EMPTY;
+                    return;
+                }
+                int home = slot(curr);
+                if (last <= pos ? (last >= home || home > pos) : (last >= home && home > pos)) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            keys[last] = curr;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        for (long k : old) {
+            if (k != EMPTY) {
+                int i = slot(k);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        hasEmptyKey = false;
+        size = 0;
+    }
+
+    public void forEach(LongConsumer action) {
+        if (hasEmptyKey) {
+            action.accept(EMPTY);
+        }
+        for (long k : keys) {
+            if (k != EMPTY) {
+                action.accept(k);
+            }
+        }
+    }
+
+    public long[] toArray() {
+        long[] out = new long[size];
+        int n = 0;
+        if (hasEmptyKey) {
+            out[n++] = EMPTY;
+        }
+        for (long k : keys) {
+            if (k != EMPTY) {
+                out[n++] = k;
+            }
+        }
+        return out;
+    }
+}
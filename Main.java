@@ -1,25 +1,44 @@
 package core;
 
+import tileengine.AnsiRenderer;
+import tileengine.Camera;
 import tileengine.TERenderer;
 import tileengine.TETile;
 import edu.princeton.cs.algs4.StdDraw;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.util.Scanner;
 import java.awt.*;
-import java.util.List;
-import java.util.ArrayList;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
 public class Main {
     private static final int WIDTH = 50;
     private static final int HEIGHT = 50;
+    private static final String JOURNAL = ActionJournal.SESSION_FILE;
+    private static final int TICKS_PER_SECOND = 60;
+    private static final int FRAMES_PER_SECOND = 60;
+    private static final Hud HUD = new Hud();
+    private static final String ANSI_USAGE = String.join("\n",
+            "Usage: --ansi N<seed>       play a new world in the terminal",
+            "       --ansi L             continue the saved session in the terminal",
+            "       --ansi R [journal]   watch a recorded session in the terminal",
+            "Keys are read from standard input, so by default they act when Enter is pressed;",
+            "run stty -icanon -echo first to have them act as they are typed, and stty sane",
+            "afterwards. :q saves and quits.");
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--ansi")) {
+            // no display needed: the same game, drawn as text
+            String mode = args.length > 1 ? args[1].toLowerCase() : "";
+            if (mode.equals("r")) {
+                watchInTerminal(args.length > 2 ? args[2] : JOURNAL, WIDTH, HEIGHT - 1);
+            } else if (mode.matches("n[0-9]+s?") || mode.equals("l")) {
+                playInTerminal(mode, WIDTH, HEIGHT - 1);
+            } else {
+                System.out.println(ANSI_USAGE);
+            }
+            return;
+        }
         TERenderer ter = new TERenderer();
         setupStdDraw();
         String input = displayMainMenu(ter, WIDTH, HEIGHT);
@@ -31,6 +50,7 @@ public class Main {
         }
 
         World world;
+        ActionJournal journal;
 
         if (input.startsWith("n")) {
             String seedString = input.replaceAll("[^0-9]", "");
@@ -39,11 +59,15 @@ public class Main {
                     long seed = Long.parseLong(seedString);
                     world = new World(WIDTH, HEIGHT, seed);
                     world.addAvatar();
-                    world.saveSeed();
+                    journal = ActionJournal.create(JOURNAL, world);
                 } catch (NumberFormatException e) {
                     // Handle the error where parsing seed into a long fails.
                     System.out.println("Error: Failed to parse seed into a long.");
                     return;
+                } catch (IOException e) {
+                    System.out.println("Error: Could not start the session journal.");
+                    e.printStackTrace();
+                    return;
                 }
             } else {
                 // Handle the case where the input doesn't contain a valid seed.
@@ -51,17 +75,18 @@ public class Main {
                 return;
             }
         } else if (input.startsWith("l")) {
-            world = loadWorld();
-            if (world == null) {
+            journal = resumeJournal();
+            if (journal == null) {
                 System.out.println("No previous save found.");
                 return;
             }
+            world = journal.getWorld();
         } else {
             return;
         }
 
         ter.initialize(WIDTH, HEIGHT);
-        runGameLoop(ter, world, WIDTH, HEIGHT);
+        runGameLoop(ter, world, journal, WIDTH, HEIGHT);
     }
 
 
@@ -130,10 +155,8 @@ public class Main {
             replayGame(ter, width, height);
             return "replay";
         } else if (loadPreviousWorld) {
-            World loadedWorld = loadWorld();
-            if (loadedWorld != null) {
-                return "load";
-            }
+            // main picks the session up from the journal
+            return "l";
         } else if (seedInputMode) {
             return input.toString().toLowerCase();
         }
@@ -144,131 +167,268 @@ public class Main {
 
 
 
-    private static void runGameLoop(TERenderer ter, World world, int width, int height) {
-        char prevKey = ' ';
-
+    private static void runGameLoop(TERenderer ter, World world, ActionJournal journal,
+                                    int width, int height) {
         ter.initialize(width, height);
         StdDraw.enableDoubleBuffering();
 
-        while (true) {
-            StdDraw.clear(Color.BLACK);
-
-            ter.renderFrame(world.getTiles());
+        // follows the avatar on worlds bigger than the window, stays put on ones that fit
+        Camera camera = new Camera(width, height, 0.35);
+        camera.clampTo(world.getWidth(), world.getHeight());
+        camera.follow(world.getPlayerX(), world.getPlayerY());
+        camera.snap();
+
+        KeyHandler keys = new KeyHandler(world, journal);
+        GameLoop[] loop = new GameLoop[1];
+        loop[0] = new GameLoop(new GameLoop.Game() {
+            @Override
+            public boolean onKey(char key) {
+                return keys.onKey(key);
+            }
 
-            handleHUD(world, width, height);
+            @Override
+            public void tick() {
+                camera.follow(world.getPlayerX(), world.getPlayerY());
+                camera.update();
+            }
 
-            if (StdDraw.hasNextKeyTyped()) {
-                char key = StdDraw.nextKeyTyped();
+            @Override
+            public void render() {
+                // only changed tiles are redrawn; the HUD row is redrawn to wipe last frame's text
+                ter.markRowDirty(height - 1);
+                ter.renderView(world, camera);
+                HUD.draw(world, camera, loop[0].getStats(), width, height);
+            }
 
-                if (prevKey == ':' && (key == 'Q' || key == 'q')) {
-                    world.saveWorld();
-                    System.exit(0);
-                }
-                if (key != ':') {
-                    world.move(key);
-                }
-                prevKey = key;
+            @Override
+            public void present() {
+                StdDraw.show();
+            }
+        }, TICKS_PER_SECOND, FRAMES_PER_SECOND);
+        loop[0].startInputThread(new GameLoop.KeyReader() {
+            @Override
+            public boolean hasNextKey() {
+                return StdDraw.hasNextKeyTyped();
             }
 
-            StdDraw.show();
-            StdDraw.pause(100);
-        }
+            @Override
+            public char nextKey() {
+                return StdDraw.nextKeyTyped();
+            }
+        }, 2);
+        loop[0].run();
+        System.exit(0);
     }
 
 
-    private static void handleHUD(World world, int width, int height) {
-        String hudText = "Tile: ";
-        if (StdDraw.mouseX() >= 0 && StdDraw.mouseX() < width && StdDraw.mouseY() >= 0 && StdDraw.mouseY() < height) {
-            int mouseX = (int) StdDraw.mouseX();
-            int mouseY = (int) StdDraw.mouseY();
-            TETile tile = world.getTiles()[mouseX][mouseY];
-            hudText += tile.description();
+    /** Picks up the session in the journal, or null if there is none to pick up. */
+    private static ActionJournal resumeJournal() {
+        if (!new File(JOURNAL).exists()) {
+            return null;
         }
-        StdDraw.setPenColor(StdDraw.WHITE);
-        StdDraw.textLeft(1, height - 1, hudText);
-
-        LocalDateTime now = LocalDateTime.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        String formattedDateTime = now.format(formatter);
-
-        StdDraw.textRight(width - 1, height - 1, formattedDateTime);
-
-        StdDraw.show();
-    }
-
-    public static World loadWorld() {
         try {
-            FileInputStream fileIn = new FileInputStream("world_state.txt");
-            ObjectInputStream in = new ObjectInputStream(fileIn);
-            World world = (World) in.readObject();
-            in.close();
-            fileIn.close();
-            return world;
-        } catch (IOException | ClassNotFoundException e) {
+            return ActionJournal.resume(JOURNAL);
+        } catch (IOException e) {
             System.out.println("Error loading world: " + e.getMessage());
             e.printStackTrace();
-            System.exit(0);
             return null;
         }
     }
 
     private static void replayGame(TERenderer ter, int width, int height) {
-        long originalSeed = loadSeed();
-        if (originalSeed == -1) {
-            System.out.println("Error: Seed not found for replay.");
+        ActionJournal journal = resumeJournal();
+        if (journal == null) {
+            System.out.println("Error: No session found for replay.");
             return;
         }
-        List<Character> actions = loadActions();
+        World recorded = journal.getWorld();
 
-        World replayWorld = new World(width, height, originalSeed);
+        World start = new World(width, height, recorded.getSeed());
 
-        replayWorld.addAvatar();
+        start.addAvatar();
+        Replay replay = new Replay(start, recorded.getRecordedActions());
 
         ter.initialize(width, height);
 
-
-        for (char action : actions) {
-            replayWorld.move(action);
-            ter.renderFrame(replayWorld.getTiles());
-            handleHUD(replayWorld, width, height);
+        Camera still = new Camera(width, height);
+        // any key skips the rest of the animation and jumps straight to the last tick
+        while (replay.step()) {
+            if (StdDraw.hasNextKeyTyped()) {
+                StdDraw.nextKeyTyped();
+                replay.runToEnd();
+            }
+            ter.markRowDirty(height - 1);
+            ter.renderChanges(replay.world().getTiles());
+            HUD.draw(replay.world(), still, null, width, height);
             StdDraw.show();
             StdDraw.pause(100);
         }
 
-        runGameLoop(ter, replayWorld, width, height);
+        runGameLoop(ter, recorded, journal, width, height);
     }
 
-    private static long loadSeed() {
-        try (FileInputStream fileIn = new FileInputStream("seed.txt");
-             ObjectInputStream in = new ObjectInputStream(fileIn)) {
-            return in.readLong();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return -1;
+    /** Applies typed keys to a journaled world; ":q" closes the journal and ends the game. */
+    private static final class KeyHandler {
+        private final World world;
+        private final ActionJournal journal;
+        private char prevKey = ' ';
+        private boolean quit;
+
+        private KeyHandler(World world, ActionJournal journal) {
+            this.world = world;
+            this.journal = journal;
+        }
+
+        /** Returns false once the player has quit. */
+        private boolean onKey(char key) {
+            if (quit) {
+                return false;
+            }
+            if (prevKey == ':' && (key == 'Q' || key == 'q')) {
+                quit = true;
+                // moves are already on disk; closing only adds a final checkpoint
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                return false;
+            }
+            if (key != ':') {
+                world.move(key);
+            }
+            prevKey = key;
+            return true;
         }
     }
 
-    private static List<Character> loadActions() {
-        try (FileInputStream fileIn = new FileInputStream("actions.txt");
-             ObjectInputStream in = new ObjectInputStream(fileIn)) {
-            return (List<Character>) in.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-            return new ArrayList<>();
+    /**
+     * Plays in the terminal through AnsiRenderer, like runGameLoop does in the window: mode
+     * "n<seed>" starts a new world, "l" continues the saved session. Keys come from
+     * standard input; see ANSI_USAGE.
+     */
+    private static void playInTerminal(String mode, int width, int height) {
+        ActionJournal journal;
+        if (mode.startsWith("n")) {
+            World world = new World(WIDTH, HEIGHT, Long.parseLong(mode.replaceAll("[^0-9]", "")));
+            world.addAvatar();
+            try {
+                journal = ActionJournal.create(JOURNAL, world);
+            } catch (IOException e) {
+                System.out.println("Error: Could not start the session journal.");
+                e.printStackTrace();
+                return;
+            }
+        } else {
+            journal = resumeJournal();
+            if (journal == null) {
+                System.out.println("No previous save found.");
+                return;
+            }
         }
+        World world = journal.getWorld();
+
+        AnsiRenderer ansi = new AnsiRenderer(System.out, width, height);
+        Camera camera = new Camera(width, height, 0.35);
+        camera.clampTo(world.getWidth(), world.getHeight());
+        camera.follow(world.getPlayerX(), world.getPlayerY());
+        camera.snap();
+        KeyHandler keys = new KeyHandler(world, journal);
+        GameLoop[] loop = new GameLoop[1];
+        loop[0] = new GameLoop(new GameLoop.Game() {
+            @Override
+            public boolean onKey(char key) {
+                // Enter only hands the line over when the terminal is line buffered
+                return key == '\n' || key == '\r' || keys.onKey(key);
+            }
+
+            @Override
+            public void tick() {
+                camera.follow(world.getPlayerX(), world.getPlayerY());
+                camera.update();
+            }
+
+            @Override
+            public void render() {
+                long millis = System.currentTimeMillis();
+                ansi.status("wasd to move, :q to quit",
+                        HUD.statsText(loop[0].getStats(), millis), HUD.clockText(millis));
+                ansi.renderView(world, camera);
+            }
+
+            @Override
+            public void present() {
+            }
+        }, TICKS_PER_SECOND, 30);
+        loop[0].startInputThread(new GameLoop.KeyReader() {
+            @Override
+            public boolean hasNextKey() {
+                try {
+                    return System.in.available() > 0;
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            public char nextKey() {
+                try {
+                    int b = System.in.read();
+                    return b < 0 ? '\n' : (char) b;
+                } catch (IOException e) {
+                    return '\n';
+                }
+            }
+        }, 2);
+        loop[0].run();
+        ansi.close();
     }
 
-    private static long getOriginalSeed() {
+    /** Plays the session recorded in the journal at path back in the terminal, hands off. */
+    private static void watchInTerminal(String path, int width, int height) {
+        World recorded;
         try {
-            FileInputStream fileIn = new FileInputStream("seed.txt");
-            Scanner scanner = new Scanner(fileIn);
-            long seed = scanner.nextLong();
-            scanner.close();
-            fileIn.close();
-            return seed;
+            recorded = ActionJournal.load(path);
         } catch (IOException e) {
-            e.printStackTrace();
-            return -1;
+            System.out.println("Error: Could not read session " + path + ": " + e.getMessage());
+            return;
         }
+        World start = new World(recorded.getWidth(), recorded.getHeight(), recorded.getSeed());
+        start.addAvatar();
+        Replay replay = new Replay(start, recorded.getRecordedActions());
+
+        AnsiRenderer ansi = new AnsiRenderer(System.out, width, height);
+        Camera camera = new Camera(width, height);
+        camera.clampTo(start.getWidth(), start.getHeight());
+        GameLoop[] loop = new GameLoop[1];
+        loop[0] = new GameLoop(new GameLoop.Game() {
+            @Override
+            public boolean onKey(char key) {
+                return true;
+            }
+
+            @Override
+            public void tick() {
+                if (!replay.step()) {
+                    loop[0].stop();
+                }
+                camera.follow(replay.world().getPlayerX(), replay.world().getPlayerY());
+                camera.update();
+            }
+
+            @Override
+            public void render() {
+                long millis = System.currentTimeMillis();
+                ansi.status(path, HUD.statsText(loop[0].getStats(), millis),
+                        HUD.clockText(millis));
+                ansi.renderView(replay.world(), camera);
+            }
+
+            @Override
+            public void present() {
+            }
+        }, 10, 30);
+        loop[0].run();
+        ansi.close();
     }
 }
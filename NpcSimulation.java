@@ -0,0 +1,194 @@
+package core;
+
+import utils.RandomUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Makes the avatars placed by World.addAvatars wander around, one step per tick. Their state
+ * is kept as parallel primitive arrays indexed by NPC id (grid cell, heading), ids being
+ * given out in order of position, so a tick touches a few bytes per NPC and no objects.
+ *
+ * A tick runs in two phases:
+ *
+ *   plan    in parallel, in shards of SHARD NPCs: every NPC picks the cell it wants to step
+ *           into, from its heading and a random number derived from (seed, id, tick), and
+ *           claims it. A claim is a compare-and-set on a per-cell slot that keeps the lowest
+ *           id claiming that cell this tick, so every cell ends up with the same winner
+ *           whichever thread gets there first. Only cells that were free at the start of the
+ *           tick can be claimed; NPCs never step into a cell vacated in the same tick.
+ *   commit  in id order on the calling thread: every winner moves, in the world's tiles
+ *           and avatar set as well as here.
+ *
+ * Nothing in a tick depends on thread timing, so a seed gives the same world after any
+ * number of ticks on any number of threads. An NPC the player walks into is eaten, as
+ * before, and drops out of the simulation. With chase, NPCs follow a shared FlowField to
+ * the player instead of wandering.
+ */
+public class NpcSimulation {
+    public static final int SHARD = 4096;
+    private static final long NPC_SALT = 0x4e5043L;
+
+    private final World world;
+    private final TileGrid grid;
+    private final ForkJoinPool pool;
+    private final long seed;
+    private final int width;
+    private final int[] cell;
+    private final byte[] heading;
+    private final int[] target;
+    // per grid cell: (tick << 32) | lowest id that claimed the cell in that tick
+    private final AtomicLongArray claims;
+    private int tick;
+    private int playerCell;
+    private FlowField field;
+
+    public NpcSimulation(World world, ForkJoinPool pool, long seed) {
+        this.world = world;
+        this.grid = world.getGrid();
+        this.pool = pool;
+        this.seed = seed ^ NPC_SALT;
+        this.width = grid.getWidth();
+
+        long[] keys = world.getAvatarKeys();
+        Arrays.sort(keys);
+        int n = keys.length;
+        cell = new int[n];
+        heading = new byte[n];
+        target = new int[n];
+        for (int id = 0; id < n; id++) {
+            cell[id] = grid.index((int) (keys[id] >>> 32), (int) keys[id]);
+            heading[id] = (byte) (RandomUtils.derive(this.seed, id, 0) & 3);
+        }
+        claims = new AtomicLongArray(grid.getWidth() * grid.getHeight());
+    }
+
+    /** Number of NPCs, eaten ones included; ids run from 0 to size() - 1. */
+    public int size() {
+        return cell.length;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    /** Grid index (y * width + x) of NPC id, or -1 once it has been eaten. */
+    public int cellOf(int id) {
+        return cell[id];
+    }
+
+    public int getAliveCount() {
+        int alive = 0;
+        for (int c : cell) {
+            if (c >= 0) {
+                alive++;
+            }
+        }
+        return alive;
+    }
+
+    /**
+     * Makes the NPCs head for the player along field instead of wandering, or wander again
+     * if field is null. The field is moved to the player at the start of every tick; NPCs
+     * that cannot reach the player keep wandering.
+     */
+    public void chase(FlowField field) {
+        this.field = field;
+    }
+
+    /** Advances every NPC by one tick. Returns how many of them moved. */
+    public int tick() {
+        if (tick == Integer.MAX_VALUE) {
+            throw new IllegalStateException("NPC simulation ran out of ticks.");
+        }
+        tick++;
+        playerCell = grid.index(world.getPlayerX(), world.getPlayerY());
+        if (field != null) {
+            field.setSource(world.getPlayerX(), world.getPlayerY());
+        }
+        int shards = (cell.length + SHARD - 1) / SHARD;
+        ParallelGenerator.forEach(pool, shards, 1, this::plan);
+
+        int moved = 0;
+        for (int id = 0; id < cell.length; id++) {
+            int to = target[id];
+            if (to >= 0 && (int) claims.get(to) == id) {
+                world.moveAvatar(cell[id], to);
+                cell[id] = to;
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    private void plan(int shard) {
+        int end = Math.min(cell.length, (shard + 1) * SHARD);
+        for (int id = shard * SHARD; id < end; id++) {
+            target[id] = -1;
+            int from = cell[id];
+            if (from < 0) {
+                continue;
+            }
+            if (from == playerCell || grid.getAt(from) != TileGrid.AVATAR) {
+                // the player has stepped on this one
+                cell[id] = -1;
+                continue;
+            }
+            long random = RandomUtils.derive(seed, id, tick);
+            int to = field == null ? -1 : field.nextCell(from);
+            if (to >= 0) {
+                // chasing: wait rather than wander when the way is taken
+                if (grid.getAt(to) != TileGrid.AVATAR && claim(to, id)) {
+                    target[id] = to;
+                }
+                continue;
+            }
+            int dir = heading[id];
+            // turn a quarter of the time, so NPCs walk in lines but still get around
+            if ((random & 3) == 0) {
+                dir = (int) (random >>> 2) & 3;
+                heading[id] = (byte) dir;
+            }
+            to = neighbour(from, dir);
+            if (to < 0 || grid.getAt(to) == TileGrid.SAND || grid.getAt(to) == TileGrid.AVATAR) {
+                // blocked: stay put and try another way next tick
+                heading[id] = (byte) ((random >>> 4) & 3);
+                continue;
+            }
+            if (claim(to, id)) {
+                target[id] = to;
+            }
+        }
+    }
+
+    // the cell one step from c in direction dir (up, right, down, left), or -1 off the map
+    private int neighbour(int c, int dir) {
+        int x = c % width;
+        switch (dir) {
+            case 0:
+                return c + width < claims.length() ? c + width : -1;
+            case 1:
+                return x + 1 < width ? c + 1 : -1;
+            case 2:
+                return c - width;
+            default:
+                return x > 0 ? c - 1 : -1;
+        }
+    }
+
+    /** Claims cell for id unless a lower id already has it this tick. */
+    private boolean claim(int c, int id) {
+        long mine = ((long) tick << 32) | id;
+        while (true) {
+            long current = claims.get(c);
+            if ((int) (current >>> 32) == tick && (int) current <= id) {
+                return false;
+            }
+            if (claims.compareAndSet(c, current, mine)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package core;
+
+import utils.RandomUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Generates rooms, hallways and walls on a ForkJoinPool. Every room and every hallway draws
+ * from its own SplittableRandom whose seed is derived from (world seed, phase, index), never
+ * from a shared generator, so the result is bit-identical for a given seed however many
+ * threads run it and in whatever order the tasks finish.
+ *
+ * Rooms and hallways only ever write FLOWER, so overlapping hallway writes from different tasks
+ * agree.
+ * Walls are computed in bands of rows; each band only writes its own rows and only reads
+ * FLOWER cells, which no longer change in that phase.
+ */
+public class ParallelGenerator {
+    private static final int MAX_ROOM = 20;
+    private static final int MIN_ROOM = 10;
+    private static final int MAX_SIZE = 10;
+    private static final int MIN_SIZE = 4;
+    private static final int WALL_BAND = 32;
+    private static final int ROOM_SPACING = 1;
+    private static final int PLACEMENT_ATTEMPTS = 30;
+    private static final int HALLWAY_NEIGHBOURS = 6;
+    private static final long ROOM_SALT = 0x524f4f4dL;
+    private static final long HALL_SALT = 0x48414c4cL;
+
+    private final ForkJoinPool pool;
+    private final long seed;
+    private final int numRooms;
+
+    /** Picks between 10 and 19 rooms, like the sequential generator. */
+    public ParallelGenerator(ForkJoinPool pool, long seed) {
+        this(pool, seed, -1);
+    }
+
+    public ParallelGenerator(ForkJoinPool pool, long seed, int numRooms) {
+        this.pool = pool;
+        this.seed = seed;
+        this.numRooms = numRooms;
+    }
+
+    private SplittableRandom stream(long salt, int index) {
+        return new SplittableRandom(RandomUtils.derive(seed ^ salt, index, 0));
+    }
+
+    /**
+     * Fills an empty grid with rooms, hallways and walls and appends the rooms to rooms.
+     * Returns the hallways in the same form as HallwayPlanner.plan.
+     */
+    public int[] generate(TileGrid grid, List<Room> rooms) {
+        Room[] placed = makeRooms(grid.getWidth(), grid.getHeight());
+        forEach(placed.length, 1, i -> genRoom(grid, placed[i]));
+        List<Room> placedList = Arrays.asList(placed);
+        int[] hallways = HallwayPlanner.plan(placedList, HALLWAY_NEIGHBOURS, placed.length / 10,
+                stream(HALL_SALT, -1));
+        forEach(hallways.length / 2, 16, e -> makeHallway(grid, placed[hallways[2 * e]],
+                placed[hallways[2 * e + 1]], e));
+        int bands = (grid.getHeight() + WALL_BAND - 1) / WALL_BAND;
+        forEach(bands, 1, band -> WallDilation.addWalls(grid, band * WALL_BAND,
+                Math.min(grid.getHeight(), (band + 1) * WALL_BAND)));
+        // the tasks above wrote raw, each to its own cells; hash the result once
+        grid.rehash();
+        rooms.addAll(placedList);
+        return hallways;
+    }
+
+    /**
+     * Placement has to run in room order, since whether a candidate fits depends on the rooms
+     * before it, but each check is O(1) with RoomPlacer and every room still draws its
+     * candidates from its own stream.
+     */
+    private Room[] makeRooms(int width, int height) {
+        int count = numRooms;
+        if (count < 0) {
+            count = stream(ROOM_SALT, -1).nextInt(MAX_ROOM - MIN_ROOM) + MIN_ROOM;
+        }
+        RoomPlacer placer = new RoomPlacer(width, height, MAX_SIZE, ROOM_SPACING);
+        List<Room> placed = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SplittableRandom r = stream(ROOM_SALT, i);
+            for (int attempt = 0; attempt < PLACEMENT_ATTEMPTS; attempt++) {
+                int rX = r.nextInt(width - MAX_SIZE - 3) + 2;
+                int rY = r.nextInt(height - MAX_SIZE - 3) + 2;
+                int rH = r.nextInt(MAX_SIZE - MIN_SIZE - 1) + MIN_SIZE + 1;
+                int rW = r.nextInt(MAX_SIZE - MIN_SIZE - 1) + MIN_SIZE + 1;
+                Room room = new Room(rX, rY, rH, rW);
+                if (placer.tryPlace(room)) {
+                    placed.add(room);
+                    break;
+                }
+            }
+        }
+        return placed.toArray(new Room[0]);
+    }
+
+    private static void genRoom(TileGrid grid, Room room) {
+        for (int y = room.y(); y < room.y() + room.height(); y++) {
+            grid.fillRowRaw(y, room.x(), room.x() + room.width() - 1, TileGrid.FLOWER);
+        }
+    }
+
+    private void makeHallway(TileGrid grid, Room from, Room to, int index) {
+        SplittableRandom r = stream(HALL_SALT, index);
+        int currx = r.nextInt(from.width() - 2) + from.x() + 1;
+        int curry = r.nextInt(from.height() - 2) + from.y() + 1;
+        int nextx = r.nextInt(to.width() - 2) + to.x() + 1;
+        int nexty = r.nextInt(to.height() - 2) + to.y() + 1;
+
+        HallwayPlanner.carveRaw(grid, currx, curry, nextx, nexty);
+    }
+
+    private void forEach(int n, int grain, IntConsumer body) {
+        forEach(pool, n, grain, body);
+    }
+
+    /** Runs body for 0..n-1 on pool, splitting the range down to grain indices per task. */
+    static void forEach(ForkJoinPool pool, int n, int grain, IntConsumer body) {
+        if (n > 0) {
+            pool.invoke(new RangeTask(0, n, grain, body));
+        }
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private final int lo;
+        private final int hi;
+        private final int grain;
+        private final IntConsumer body;
+
+        RangeTask(int lo, int hi, int grain, IntConsumer body) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                for (int i = lo; i < hi; i++) {
+                    body.accept(i);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new RangeTask(lo, mid, grain, body), new RangeTask(mid, hi, grain, body));
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Shortest paths over the tiles of a World, moving the way World.move does: one step up,
+ * down, left or right, onto any cell that is not a wall. Three searches share one API:
+ *
+ *   findPath          A* with a Manhattan heuristic; always finds a shortest path.
+ *   jumpPointSearch   Jump Point Search for four-way movement. Also exact, but skips over
+ *                     straight runs of open floor without queueing them, so it expands far
+ *                     fewer cells inside rooms.
+ *   findPathRoomGraph Plans over the rooms and hallways of the world first (Dijkstra on the
+ *                     room graph, weighted by the distance between room centres), then joins
+ *                     the room centres on that route with short jump point searches. Each only
+ *                     has to cover the stretch between two rooms, which keeps long queries on
+ *                     big maps cheap; the price is that the path is not always the shortest.
+ *
+ * A path is written into an int[] the caller provides, as grid indices (y * width + x) from
+ * start to goal, and the methods return its length in cells, or -1 if the goal cannot be
+ * reached. The search state (costs, parents, the open list) lives in per-thread buffers the
+ * size of the grid that are reused from query to query, so once a thread has made its first
+ * query, queries allocate nothing and any number of threads can search at once.
+ *
+ * Walls never change after generation, so a Pathfinder stays valid while avatars move.
+ */
+public class Pathfinder {
+    // returned by the searches instead of a length when the path does not fit in path
+    private static final int TOO_LONG = -2;
+
+    private final TileGrid grid;
+    private final int width;
+    private final int height;
+    private final int[] roomAt;
+    private final int[] roomCentre;
+    // room graph in compressed rows: the neighbours of room r are edges[first[r]..first[r+1])
+    private final int[] first;
+    private final int[] edges;
+    private final int[] weights;
+    private final ThreadLocal<Search> searches;
+
+    public Pathfinder(World world) {
+        this.grid = world.getGrid();
+        this.width = grid.getWidth();
+        this.height = grid.getHeight();
+
+        List<Room> rooms = world.getRooms();
+        int n = rooms.size();
+        roomAt = new int[width * height];
+        Arrays.fill(roomAt, -1);
+        roomCentre = new int[n];
+        for (int r = 0; r < n; r++) {
+            Room room = rooms.get(r);
+            for (int y = room.y(); y < room.y() + room.height(); y++) {
+                Arrays.fill(roomAt, grid.index(room.x(), y),
+                        grid.index(room.x() + room.width(), y), r);
+            }
+            roomCentre[r] = grid.index(room.x() + room.width() / 2, room.y() + room.height() / 2);
+        }
+
+        int[] hallways = world.getHallways();
+        first = new int[n + 1];
+        for (int e = 0; e < hallways.length; e++) {
+            first[hallways[e] + 1]++;
+        }
+        for (int r = 0; r < n; r++) {
+            first[r + 1] += first[r];
+        }
+        edges = new int[hallways.length];
+        weights = new int[hallways.length];
+        int[] fill = Arrays.copyOf(first, n);
+        for (int e = 0; e < hallways.length; e += 2) {
+            int a = hallways[e];
+            int b = hallways[e + 1];
+            int weight = distance(roomCentre[a], roomCentre[b]);
+            edges[fill[a]] = b;
+            weights[fill[a]++] = weight;
+            edges[fill[b]] = a;
+            weights[fill[b]++] = weight;
+        }
+
+        searches = ThreadLocal.withInitial(() -> new Search(width * height, roomCentre.length));
+    }
+
+    /** Buffers for one thread's searches. A cell's entries are valid while seen == stamp. */
+    private static final class Search {
+        private final int[] cost;
+        private final int[] parent;
+        private final int[] seen;
+        private final int[] closed;
+        private final int[] route;
+        private long[] keys = new long[1024];
+        private int[] cells = new int[1024];
+        private int size;
+        private int stamp;
+
+        private Search(int cells, int rooms) {
+            route = new int[rooms];
+            cost = new int[cells];
+            parent = new int[cells];
+            seen = new int[cells];
+            closed = new int[cells];
+        }
+
+        private void begin() {
+            size = 0;
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(seen, 0);
+                Arrays.fill(closed, 0);
+                stamp = 1;
+            }
+        }
+
+        /**
+         * Records a cost for cell if it beats the known one, and queues it by cost plus
+         * estimate. Ties go to the smaller estimate, i.e. to the cell nearer the goal.
+         */
+        private void offer(int cell, int newCost, int estimate, int from) {
+            if (seen[cell] == stamp && cost[cell] <= newCost) {
+                return;
+            }
+            seen[cell] = stamp;
+            cost[cell] = newCost;
+            parent[cell] = from;
+            push(((long) (newCost + estimate) << 32) | estimate, cell);
+        }
+
+        // binary min-heap of cells, ordered by keys kept in a parallel array
+        private void push(long key, int cell) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                cells = Arrays.copyOf(cells, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int up = (i - 1) >>> 1;
+                if (keys[up] <= key) {
+                    break;
+                }
+                keys[i] = keys[up];
+                cells[i] = cells[up];
+                i = up;
+            }
+            keys[i] = key;
+            cells[i] = cell;
+        }
+
+        private int pop() {
+            int top = cells[0];
+            long key = keys[--size];
+            int cell = cells[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (keys[child] >= key) {
+                    break;
+                }
+                keys[i] = keys[child];
+                cells[i] = cells[child];
+                i = child;
+            }
+            keys[i] = key;
+            cells[i] = cell;
+            return top;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Whether (x, y) is on the map and not a wall. */
+    public boolean isWalkable(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height && grid.get(x, y) != TileGrid.SAND;
+    }
+
+    private int distance(int a, int b) {
+        return Math.abs(a % width - b % width) + Math.abs(a / width - b / width);
+    }
+
+    /**
+     * A shortest path from (startX, startY) to (goalX, goalY) found with A*.
+     * @param path receives the cells of the path, start first; width * height always fits
+     * @return the number of cells written, or -1 if there is no path
+     */
+    public int findPath(int startX, int startY, int goalX, int goalY, int[] path) {
+        if (!isWalkable(startX, startY) || !isWalkable(goalX, goalY)) {
+            return -1;
+        }
+        Search s = searches.get();
+        return fits(astar(s, grid.index(startX, startY), grid.index(goalX, goalY), path, 0), path);
+    }
+
+    private static int fits(int length, int[] path) {
+        if (length == TOO_LONG) {
+            throw new IllegalArgumentException("Path does not fit in " + path.length + " cells.");
+        }
+        return length;
+    }
+
+    // A* from start to goal; writes the path into path at offset and returns where it ends,
+    // or -1 if there is none, or TOO_LONG if it does not fit
+    private int astar(Search s, int start, int goal, int[] path, int offset) {
+        s.begin();
+        s.offer(start, 0, distance(start, goal), start);
+        while (s.size > 0) {
+            int cell = s.pop();
+            if (s.closed[cell] == s.stamp) {
+                continue;
+            }
+            s.closed[cell] = s.stamp;
+            if (cell == goal) {
+                return trace(s, start, goal, path, offset);
+            }
+            int x = cell % width;
+            int y = cell / width;
+            int next = s.cost[cell] + 1;
+            if (isWalkable(x + 1, y)) {
+                relax(s, cell, cell + 1, next, goal);
+            }
+            if (isWalkable(x - 1, y)) {
+                relax(s, cell, cell - 1, next, goal);
+            }
+            if (isWalkable(x, y + 1)) {
+                relax(s, cell, cell + width, next, goal);
+            }
+            if (isWalkable(x, y - 1)) {
+                relax(s, cell, cell - width, next, goal);
+            }
+        }
+        return -1;
+    }
+
+    private void relax(Search s, int from, int to, int cost, int goal) {
+        if (s.closed[to] != s.stamp) {
+            s.offer(to, cost, distance(to, goal), from);
+        }
+    }
+
+    /**
+     * A shortest path found with Jump Point Search. Same result length as findPath, though
+     * where several shortest paths exist it may pick another one.
+     * @param path receives the cells of the path, start first; width * height always fits
+     * @return the number of cells written, or -1 if there is no path
+     */
+    public int jumpPointSearch(int startX, int startY, int goalX, int goalY, int[] path) {
+        if (!isWalkable(startX, startY) || !isWalkable(goalX, goalY)) {
+            return -1;
+        }
+        return fits(jps(searches.get(), grid.index(startX, startY), grid.index(goalX, goalY),
+                path, 0), path);
+    }
+
+    // Jump Point Search from start to goal; same contract as astar
+    private int jps(Search s, int start, int goal, int[] path, int offset) {
+        s.begin();
+        s.offer(start, 0, distance(start, goal), start);
+        while (s.size > 0) {
+            int cell = s.pop();
+            if (s.closed[cell] == s.stamp) {
+                continue;
+            }
+            s.closed[cell] = s.stamp;
+            if (cell == goal) {
+                return trace(s, start, goal, path, offset);
+            }
+            int x = cell % width;
+            int y = cell / width;
+            int from = s.parent[cell];
+            int dx = Integer.signum(x - from % width);
+            int dy = Integer.signum(y - from / width);
+            // a straight move keeps going and may turn either way; the start goes everywhere
+            if (dx == 0 && dy == 0) {
+                jumpFrom(s, cell, 1, 0, goal);
+                jumpFrom(s, cell, -1, 0, goal);
+                jumpFrom(s, cell, 0, 1, goal);
+                jumpFrom(s, cell, 0, -1, goal);
+            } else if (dx != 0) {
+                jumpFrom(s, cell, dx, 0, goal);
+                jumpFrom(s, cell, 0, 1, goal);
+                jumpFrom(s, cell, 0, -1, goal);
+            } else {
+                jumpFrom(s, cell, 0, dy, goal);
+                jumpFrom(s, cell, 1, 0, goal);
+                jumpFrom(s, cell, -1, 0, goal);
+            }
+        }
+        return -1;
+    }
+
+    private void jumpFrom(Search s, int cell, int dx, int dy, int goal) {
+        int to = jump(cell % width, cell / width, dx, dy, goal);
+        if (to >= 0) {
+            relax(s, cell, to, s.cost[cell] + distance(cell, to), goal);
+        }
+    }
+
+    /**
+     * Walks from (x, y) in direction (dx, dy) and returns the first cell worth queueing: the
+     * goal, a cell beside which a side way opens up that could not be reached as cheaply
+     * without passing here, or, moving vertically, a cell from which a horizontal walk finds
+     * one. Returns -1 on hitting a wall first.
+     */
+    private int jump(int x, int y, int dx, int dy, int goal) {
+        while (true) {
+            x += dx;
+            y += dy;
+            if (!isWalkable(x, y)) {
+                return -1;
+            }
+            int cell = grid.index(x, y);
+            if (cell == goal) {
+                return cell;
+            }
+            if (dx != 0) {
+                if (isWalkable(x, y + 1) && !isWalkable(x - dx, y + 1)
+                        || isWalkable(x, y - 1) && !isWalkable(x - dx, y - 1)) {
+                    return cell;
+                }
+            } else {
+                if (isWalkable(x + 1, y) && !isWalkable(x + 1, y - dy)
+                        || isWalkable(x - 1, y) && !isWalkable(x - 1, y - dy)) {
+                    return cell;
+                }
+                if (jump(x, y, 1, 0, goal) >= 0 || jump(x, y, -1, 0, goal) >= 0) {
+                    return cell;
+                }
+            }
+        }
+    }
+
+    /**
+     * A path planned over the room graph first: through the centres of the rooms on the
+     * cheapest chain of hallways between the room of the start and the room of the goal.
+     * Falls back to jumpPointSearch when start and goal share a room or either lies outside all
+     * rooms, e.g. in a hallway. Usually close to the shortest path, never shorter.
+     * @param path receives the cells of the path, start first; width * height always fits
+     * @return the number of cells written, or -1 if there is no path
+     */
+    public int findPathRoomGraph(int startX, int startY, int goalX, int goalY, int[] path) {
+        if (!isWalkable(startX, startY) || !isWalkable(goalX, goalY)) {
+            return -1;
+        }
+        Search s = searches.get();
+        int start = grid.index(startX, startY);
+        int goal = grid.index(goalX, goalY);
+        int from = roomAt[start];
+        int to = roomAt[goal];
+        if (from < 0 || to < 0 || from == to || !planRooms(s, from, to)) {
+            return fits(jps(s, start, goal, path, 0), path);
+        }
+
+        // planRooms left each room's predecessor in parent[]; route gets the rooms from the
+        // goal's back to the one after the start's, before the leg searches overwrite parent[]
+        int rooms = 0;
+        for (int r = to; r != from; r = s.parent[r]) {
+            s.route[rooms++] = r;
+        }
+        // each leg starts on the last cell of the one before; if a leg has no path, or the
+        // detours through room centres leave no room for it in path, search directly
+        int length = 0;
+        int leg = start;
+        for (int i = rooms - 1; i >= 0; i--) {
+            // the centres of the rooms in between, then the goal
+            int next = i > 0 ? roomCentre[s.route[i]] : goal;
+            int offset = Math.max(0, length - 1);
+            if (offset + distance(leg, next) + 1 > path.length) {
+                return fits(jps(s, start, goal, path, 0), path);
+            }
+            length = jps(s, leg, next, path, offset);
+            if (length < 0) {
+                return fits(jps(s, start, goal, path, 0), path);
+            }
+            leg = next;
+        }
+        return length;
+    }
+
+    /** Dijkstra over the room graph; leaves each room's predecessor in s.parent. */
+    private boolean planRooms(Search s, int from, int to) {
+        s.begin();
+        s.offer(from, 0, 0, from);
+        while (s.size > 0) {
+            int room = s.pop();
+            if (s.closed[room] == s.stamp) {
+                continue;
+            }
+            s.closed[room] = s.stamp;
+            if (room == to) {
+                return true;
+            }
+            for (int e = first[room]; e < first[room + 1]; e++) {
+                int next = edges[e];
+                if (s.closed[next] != s.stamp) {
+                    int cost = s.cost[room] + weights[e];
+                    s.offer(next, cost, 0, room);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the path ending at goal into path at offset, start first. Jump Point Search
+     * parents can be several cells away in a straight line, so each gap is filled in.
+     */
+    private int trace(Search s, int start, int goal, int[] path, int offset) {
+        int length = s.cost[goal] + 1;
+        if (offset + length > path.length) {
+            return TOO_LONG;
+        }
+        int i = offset + length - 1;
+        int cell = goal;
+        while (cell != start) {
+            int parent = s.parent[cell];
+            int step = parent % width != cell % width
+                    ? Integer.signum(parent % width - cell % width)
+                    : width * Integer.signum(parent / width - cell / width);
+            for (; cell != parent; cell += step) {
+                path[i--] = cell;
+            }
+        }
+        path[i] = start;
+        return offset + length;
+    }
+}
@@ -0,0 +1,86 @@
+package bench;
+
+import core.Pathfinder;
+import core.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tileengine.Tileset;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path queries between random pairs of floor cells, with each of the three searches in
+ * Pathfinder. The pairs are fixed per size, so the three scores are directly comparable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathfindingBenchmark {
+    @Param({"50", "500", "2000"})
+    public int size;
+
+    private static final long SEED = 42;
+    private static final int QUERIES = 256;
+    private Pathfinder paths;
+    private int[] queries;
+    private int[] path;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        World world = new World(size, size, SEED, GenerationBenchmark.roomsFor(size));
+        paths = new Pathfinder(world);
+        path = new int[size * size];
+        queries = new int[QUERIES * 4];
+        Random r = new Random(SEED);
+        for (int i = 0; i < queries.length; i += 2) {
+            int x;
+            int y;
+            do {
+                x = r.nextInt(size);
+                y = r.nextInt(size);
+            } while (world.tile(x, y) != Tileset.FLOWER);
+            queries[i] = x;
+            queries[i + 1] = y;
+        }
+    }
+
+    @Benchmark
+    public int aStar() {
+        int q = nextQuery();
+        return paths.findPath(queries[q], queries[q + 1], queries[q + 2], queries[q + 3], path);
+    }
+
+    @Benchmark
+    public int jumpPointSearch() {
+        int q = nextQuery();
+        return paths.jumpPointSearch(queries[q], queries[q + 1], queries[q + 2], queries[q + 3],
+                path);
+    }
+
+    @Benchmark
+    public int roomGraph() {
+        int q = nextQuery();
+        return paths.findPathRoomGraph(queries[q], queries[q + 1], queries[q + 2],
+                queries[q + 3], path);
+    }
+
+    private int nextQuery() {
+        int q = next;
+        next = (next + 4) % queries.length;
+        return q;
+    }
+}
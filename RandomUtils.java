@@ -527,6 +527,32 @@ public class RandomUtils {
         return perm;
     }
 
+    /**
+     * Scrambles a 64-bit value with the SplitMix64 finalizer. Useful for turning a
+     * seed plus some coordinates into a well-distributed seed for a new generator.
+     *
+     * @param z the value to scramble
+     * @return a 64-bit value that depends on every bit of {@code z}
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Derives a seed from a base seed and two coordinates. The same inputs always give
+     * the same result, and nearby coordinates give unrelated seeds.
+     *
+     * @param seed the base seed
+     * @param a the first coordinate
+     * @param b the second coordinate
+     * @return the derived seed
+     */
+    public static long derive(long seed, long a, long b) {
+        return mix(mix(seed + 0x9e3779b97f4a7c15L * (a + 1)) + 0x9e3779b97f4a7c15L * (b + 1));
+    }
+
     // throw an IllegalArgumentException if x is null
     // (x can be of type Object[], double[], int[], ...)
     private static void validateNotNull(Object x) {
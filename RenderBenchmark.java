@@ -0,0 +1,65 @@
+package bench;
+
+import core.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tileengine.TERenderer;
+import tileengine.TETile;
+import tileengine.TileAtlas;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TERenderer.renderFrame, and composing the same frame from a TileAtlas. StdDraw is double
+ * buffered, so every draw call lands in its offscreen image and show() only copies that
+ * image to the window. StdDraw still opens its window when it loads and cannot run
+ * headless, so run this one with a display, e.g. under xvfb-run on a build box.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    @Param({"50", "100"})
+    public int size;
+
+    private TERenderer ter;
+    private TileAtlas atlas;
+    private BufferedImage frame;
+    private TETile[][] tiles;
+
+    @Setup
+    public void setUp() {
+        World world = new World(size, size, 7, GenerationBenchmark.roomsFor(size));
+        world.addAvatar();
+        tiles = world.getTiles();
+        ter = new TERenderer();
+        ter.initialize(size, size);
+        atlas = new TileAtlas(16);
+        frame = atlas.compose(tiles);
+    }
+
+    @Benchmark
+    public void renderFrame() {
+        ter.renderFrame(tiles);
+    }
+
+    /** The same frame blitted from pre-rendered tile images into an offscreen image. */
+    @Benchmark
+    public BufferedImage composeFrame() {
+        atlas.compose(tiles, frame, 0, 0);
+        return frame;
+    }
+}
@@ -0,0 +1,111 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a recorded list of actions back onto a starting world without drawing anything, as
+ * fast as move allows. Tick t is the state after the first t actions. The first time the
+ * replay passes a multiple of keyframeEvery it keeps a copy of the world there, so seek can
+ * jump to any tick by restoring the nearest keyframe at or before it and applying fewer than
+ * keyframeEvery moves, in either direction.
+ *
+ * Keyframes are kept without their recorded actions, so they cost the tiles they changed
+ * and not the whole history before them; the replay keeps that history once, for the
+ * furthest tick reached, and a restored world gets the part of it up to its keyframe.
+ */
+public class Replay {
+    public static final int DEFAULT_KEYFRAME_EVERY = 256;
+
+    private final List<Character> actions;
+    private final int keyframeEvery;
+    private final List<World> keyframes = new ArrayList<>();
+    // number of recorded actions of the world at each keyframe
+    private final List<Integer> keyframeRecorded = new ArrayList<>();
+    // recorded actions of the world at the furthest tick reached
+    private final List<Character> recorded;
+    private World current;
+    private int tick;
+    private int furthest;
+
+    public Replay(World start, List<Character> actions) {
+        this(start, actions, DEFAULT_KEYFRAME_EVERY);
+    }
+
+    public Replay(World start, List<Character> actions, int keyframeEvery) {
+        if (keyframeEvery < 1) {
+            throw new IllegalArgumentException("keyframeEvery must be positive: " + keyframeEvery);
+        }
+        this.actions = new ArrayList<>(actions);
+        this.keyframeEvery = keyframeEvery;
+        recorded = new ArrayList<>(start.getRecordedActions());
+        addKeyframe(start);
+        current = start.copy();
+    }
+
+    public int length() {
+        return actions.size();
+    }
+
+    public int tick() {
+        return tick;
+    }
+
+    public int keyframeCount() {
+        return keyframes.size();
+    }
+
+    /** The world at the current tick. It belongs to the replay; copy it before changing it. */
+    public World world() {
+        return current;
+    }
+
+    /** Applies the next action. Returns false if the replay is already at the end. */
+    public boolean step() {
+        if (tick == actions.size()) {
+            return false;
+        }
+        int before = current.getRecordedActions().size();
+        current.move(actions.get(tick));
+        tick++;
+        if (tick > furthest) {
+            furthest = tick;
+            // blocked moves are not recorded
+            if (current.getRecordedActions().size() > before) {
+                recorded.add(actions.get(tick - 1));
+            }
+        }
+        if (tick % keyframeEvery == 0 && tick / keyframeEvery == keyframes.size()) {
+            addKeyframe(current);
+        }
+        return true;
+    }
+
+    private void addKeyframe(World world) {
+        keyframes.add(world.copy(List.of()));
+        keyframeRecorded.add(world.getRecordedActions().size());
+    }
+
+    /** Moves to target, which may lie before or after the current tick, and returns the world. */
+    public World seek(int target) {
+        if (target < 0 || target > actions.size()) {
+            throw new IllegalArgumentException(
+                    "Tick " + target + " is outside 0.." + actions.size());
+        }
+        int keyframe = Math.min(target / keyframeEvery, keyframes.size() - 1);
+        if (target < tick || keyframe * keyframeEvery > tick) {
+            current = keyframes.get(keyframe).copy(
+                    recorded.subList(0, keyframeRecorded.get(keyframe)));
+            tick = keyframe * keyframeEvery;
+        }
+        while (tick < target) {
+            step();
+        }
+        return current;
+    }
+
+    /** Fast-forwards to the last tick and returns the final world. */
+    public World runToEnd() {
+        return seek(actions.size());
+    }
+}
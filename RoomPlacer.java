@@ -0,0 +1,83 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform-grid bucket index over placed rooms, used to reject candidates that overlap (or come
+ * closer than spacing to) a room that is already placed. Buckets are at least as wide as the
+ * largest room plus the spacing, so a room is filed only under the bucket holding its lower
+ * left corner and a query only has to look at the 3x3 buckets around the candidate. Since
+ * placed rooms never overlap, each bucket holds a bounded number of rooms and a check is
+ * expected O(1) however full the map gets.
+ */
+public class RoomPlacer {
+    private final int cellSize;
+    private final int spacing;
+    private final int cols;
+    private final int rows;
+    private final int[] head;
+    private int[] next;
+    private final List<Room> placed;
+
+    public RoomPlacer(int width, int height, int maxRoomSize, int spacing) {
+        this.cellSize = maxRoomSize + spacing;
+        this.spacing = spacing;
+        this.cols = width / cellSize + 1;
+        this.rows = height / cellSize + 1;
+        this.head = new int[cols * rows];
+        Arrays.fill(head, -1);
+        this.next = new int[16];
+        this.placed = new ArrayList<>();
+    }
+
+    public int size() {
+        return placed.size();
+    }
+
+    /** Places room and returns true unless it overlaps or crowds an already placed room. */
+    public boolean tryPlace(Room room) {
+        if (collides(room)) {
+            return false;
+        }
+        add(room);
+        return true;
+    }
+
+    /** Files room without checking it, e.g. for rooms that were placed earlier. */
+    public void add(Room room) {
+        int id = placed.size();
+        placed.add(room);
+        if (id == next.length) {
+            next = Arrays.copyOf(next, id * 2);
+        }
+        int bucket = bucket(room.x() / cellSize, room.y() / cellSize);
+        next[id] = head[bucket];
+        head[bucket] = id;
+    }
+
+    public boolean collides(Room room) {
+        int bx = room.x() / cellSize;
+        int by = room.y() / cellSize;
+        for (int j = Math.max(0, by - 1); j <= Math.min(rows - 1, by + 1); j++) {
+            for (int i = Math.max(0, bx - 1); i <= Math.min(cols - 1, bx + 1); i++) {
+                for (int id = head[bucket(i, j)]; id != -1; id = next[id]) {
+                    if (tooClose(room, placed.get(id))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean tooClose(Room a, Room b) {
+        return a.x() < b.x() + b.width() + spacing && b.x() < a.x() + a.width() + spacing
+                && a.y() < b.y() + b.height() + spacing && b.y() < a.y() + a.height() + spacing;
+    }
+
+    private int bucket(int i, int j) {
+        return j * cols + i;
+    }
+}
@@ -4,6 +4,9 @@ import edu.princeton.cs.algs4.StdDraw;
 
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.Field;
 
 /**
  * Utility class for rendering tiles. You do not need to modify this file. You're welcome
@@ -13,11 +16,20 @@ import java.awt.Font;
  */
 public class TERenderer {
     private static final int TILE_SIZE = 16;
+    private static final Color BACKGROUND = new Color(0, 0, 0);
+    // StdDraw's back buffer, which it draws everything into until show(); see canvas()
+    private static final Field OFFSCREEN = offscreenField();
     private int width;
     private int height;
     private int xOffset;
     private int yOffset;
     private TETile[][] world;
+    private TETile[][] lastFrame;
+    private final TileAtlas atlas = new TileAtlas(TILE_SIZE);
+    // atlas at the back buffer's own resolution, and the back buffer it was made for
+    private TileAtlas screenAtlas = atlas;
+    private Graphics2D screenAtlasFor;
+    private TETile[][] viewBuffer;
 
     /**
      * Same functionality as the other initialization method. The only difference is that the xOff
@@ -39,7 +51,8 @@ public class TERenderer {
         StdDraw.setXscale(0, width);
         StdDraw.setYscale(0, height);
 
-        StdDraw.clear(new Color(0, 0, 0));
+        StdDraw.clear(BACKGROUND);
+        lastFrame = null;
 
         StdDraw.enableDoubleBuffering();
 //        StdDraw.show();
@@ -87,19 +100,202 @@ public class TERenderer {
     public void renderFrame(TETile[][] world) {
         int numXTiles = world.length;
         int numYTiles = world[0].length;
-        StdDraw.clear(new Color(0, 0, 0));
+        StdDraw.clear(BACKGROUND);
+        lastFrame = null;
+        Graphics2D canvas = canvas();
         for (int x = 0; x < numXTiles; x += 1) {
             for (int y = 0; y < numYTiles; y += 1) {
                 if (world[x][y] == null) {
                     throw new IllegalArgumentException("Tile at position x=" + x + ", y=" + y
                             + " is null.");
                 }
-                world[x][y].draw(x + xOffset, y + yOffset);
+                drawTile(canvas, world[x][y], x + xOffset, y + yOffset);
             }
         }
         StdDraw.show();
     }
 
+    /**
+     * Same as renderFrame, but only draws the tiles that changed since the last call. Tiles
+     * are compared by reference against the frame this method drew last time, so a frame
+     * where one avatar moved costs two draws instead of one per tile. The canvas is only
+     * cleared and fully redrawn on the first call, after initialize or renderFrame, after
+     * invalidate, or when the size of the array changes.
+     *
+     * Anything drawn over the tiles (a HUD, say) stays on screen until the tiles under it
+     * are redrawn; use markDirty or markRowDirty to have them redrawn in the next frame.
+     *
+     * Unlike renderFrame this does not show the frame, so that a HUD can be drawn on top
+     * first: call StdDraw.show() once the whole frame is drawn.
+     * @param world the 2D TETile[][] array to render
+     * @return the number of tiles drawn
+     */
+    public int renderChanges(TETile[][] world) {
+        int numXTiles = world.length;
+        int numYTiles = world[0].length;
+        if (lastFrame == null || lastFrame.length != numXTiles || lastFrame[0].length != numYTiles) {
+            StdDraw.clear(BACKGROUND);
+            lastFrame = new TETile[numXTiles][numYTiles];
+        }
+        Graphics2D canvas = canvas();
+        int drawn = 0;
+        for (int x = 0; x < numXTiles; x += 1) {
+            TETile[] column = world[x];
+            TETile[] lastColumn = lastFrame[x];
+            for (int y = 0; y < numYTiles; y += 1) {
+                TETile tile = column[y];
+                if (tile == lastColumn[y]) {
+                    continue;
+                }
+                if (tile == null) {
+                    throw new IllegalArgumentException("Tile at position x=" + x + ", y=" + y
+                            + " is null.");
+                }
+                drawTile(canvas, tile, x + xOffset, y + yOffset);
+                lastColumn[y] = tile;
+                drawn++;
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * Copies the tile's pre-rendered image from the atlas straight into StdDraw's back buffer,
+     * with no per-tile text layout or image lookup by path. Falls back to TETile.draw if the
+     * back buffer cannot be reached or the atlas is full. (x, y) is the bottom left corner of
+     * the tile, in tiles.
+     */
+    private void drawTile(Graphics2D canvas, TETile tile, double x, double y) {
+        BufferedImage image = canvas == null ? null : screenAtlas.image(tile);
+        if (image == null) {
+            tile.draw(x, y);
+            return;
+        }
+        // in the canvas's user space, where a tile is TILE_SIZE wide whatever the image is
+        canvas.drawImage(image, (int) Math.round(x * TILE_SIZE),
+                (int) Math.round((height - 1 - y) * TILE_SIZE), TILE_SIZE, TILE_SIZE, null);
+    }
+
+    /**
+     * The Graphics2D of StdDraw's back buffer, or null if this StdDraw has none. StdDraw does
+     * not hand it out, so it is read from its field; it is read again every frame because
+     * setCanvasSize replaces it.
+     *
+     * On high-density displays StdDraw makes the back buffer larger than the window and
+     * scales its Graphics2D to match, so a TILE_SIZE image would be stretched and blurred.
+     * Tiles are therefore drawn from an atlas rasterized at that scale, picked whenever the
+     * back buffer changes.
+     */
+    private Graphics2D canvas() {
+        if (OFFSCREEN == null) {
+            return null;
+        }
+        Graphics2D canvas;
+        try {
+            canvas = (Graphics2D) OFFSCREEN.get(null);
+        } catch (IllegalAccessException | ClassCastException e) {
+            return null;
+        }
+        if (canvas != null && canvas != screenAtlasFor) {
+            int size = (int) Math.round(TILE_SIZE * canvas.getTransform().getScaleX());
+            if (size != screenAtlas.getTileSize()) {
+                screenAtlas = size == TILE_SIZE ? atlas : new TileAtlas(size);
+            }
+            screenAtlasFor = canvas;
+        }
+        return canvas;
+    }
+
+    private static Field offscreenField() {
+        try {
+            Field field = StdDraw.class.getDeclaredField("offscreen");
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Draws the part of source that camera looks at, reading only the cells in view, so the
+     * cost depends on the size of the screen and not of the world. While the camera rests on
+     * whole tiles this works like renderChanges and only redraws what changed; mid-scroll it
+     * redraws the view, plus the row and column that are partly scrolled in. Like
+     * renderChanges, it leaves showing the frame to the caller.
+     * @param source the world to draw
+     * @param camera where to look; its size in tiles is the size of the view
+     * @return the number of tiles drawn
+     */
+    public int renderView(TileSource source, Camera camera) {
+        int cols = camera.getWidth();
+        int rows = camera.getHeight();
+        long left = camera.left();
+        long bottom = camera.bottom();
+        double fx = camera.getX() - left;
+        double fy = camera.getY() - bottom;
+
+        if (fx == 0 && fy == 0) {
+            if (viewBuffer == null || viewBuffer.length != cols || viewBuffer[0].length != rows) {
+                viewBuffer = new TETile[cols][rows];
+            }
+            for (int x = 0; x < cols; x++) {
+                TETile[] column = viewBuffer[x];
+                for (int y = 0; y < rows; y++) {
+                    column[y] = source.tile(left + x, bottom + y);
+                }
+            }
+            return renderChanges(viewBuffer);
+        }
+
+        StdDraw.clear(BACKGROUND);
+        lastFrame = null;
+        Graphics2D canvas = canvas();
+        int drawn = 0;
+        for (int x = 0; x <= cols; x++) {
+            for (int y = 0; y <= rows; y++) {
+                drawTile(canvas, source.tile(left + x, bottom + y), x - fx + xOffset,
+                        y - fy + yOffset);
+                drawn++;
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * Composes a frame into an image the size of the window instead of drawing it on screen,
+     * e.g. for screenshots or headless rendering. Needs no display.
+     * @param world the 2D TETile[][] array to render
+     * @return the frame, TILE_SIZE pixels per tile
+     */
+    public BufferedImage renderToImage(TETile[][] world) {
+        BufferedImage frame = new BufferedImage(width * TILE_SIZE, height * TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        atlas.compose(world, frame, xOffset, yOffset);
+        return frame;
+    }
+
+    /** Makes renderChanges redraw the tile at (x, y) next time, whether it changed or not. */
+    public void markDirty(int x, int y) {
+        if (lastFrame != null && x >= 0 && x < lastFrame.length
+                && y >= 0 && y < lastFrame[x].length) {
+            lastFrame[x][y] = null;
+        }
+    }
+
+    /** Makes renderChanges redraw row y next time. */
+    public void markRowDirty(int y) {
+        if (lastFrame != null) {
+            for (int x = 0; x < lastFrame.length; x++) {
+                markDirty(x, y);
+            }
+        }
+    }
+
+    /** Makes the next renderChanges clear the canvas and draw every tile. */
+    public void invalidate() {
+        lastFrame = null;
+    }
+
     public void setWorld(TETile[][] world) {
         this.world = world; // Assuming there is a field TETile[][] world; in TERenderer
     }
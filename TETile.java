@@ -29,6 +29,7 @@ public class TETile implements Serializable {
     private final Color backgroundColor;
     private final String description;
     private final String filepath;
+    private final String glyph; // the character as a String, so draw need not build one
 
     /**
      * Full constructor for TETile objects.
@@ -45,6 +46,7 @@ public class TETile implements Serializable {
         this.backgroundColor = backgroundColor;
         this.description = description;
         this.filepath = filepath;
+        this.glyph = Character.toString(character);
     }
 
     /**
@@ -61,6 +63,7 @@ public class TETile implements Serializable {
         this.backgroundColor = backgroundColor;
         this.description = description;
         this.filepath = null;
+        this.glyph = Character.toString(character);
     }
 
     /**
@@ -97,7 +100,19 @@ public class TETile implements Serializable {
         StdDraw.setPenColor(backgroundColor);
         StdDraw.filledSquare(x + 0.5, y + 0.5, 0.5);
         StdDraw.setPenColor(textColor);
-        StdDraw.text(x + 0.5, y + 0.5, Character.toString(character()));
+        StdDraw.text(x + 0.5, y + 0.5, glyph);
+    }
+
+    Color textColor() {
+        return textColor;
+    }
+
+    Color backgroundColor() {
+        return backgroundColor;
+    }
+
+    String filepath() {
+        return filepath;
     }
 
     /** Character representation of the tile. Used for drawing in text mode.
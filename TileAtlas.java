@@ -0,0 +1,140 @@
+package tileengine;
+
+import javax.imageio.ImageIO;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Pre-rendered images of tiles. Each distinct look (character, text colour, background
+ * colour and image file) is rasterized once, the way TETile.draw would draw it, and reused
+ * from then on, so drawing a tile no longer builds a String or lays out any text.
+ *
+ * Tiles are looked up by reference first and by look second, so tiles made with
+ * TETile.colorVariant that happen to look the same share one image. Both lookups are
+ * bounded: the first by weak keys, the second by MAX_LOOKS, past which image returns null
+ * and the caller should fall back to TETile.draw.
+ *
+ * TERenderer copies these images into StdDraw's back buffer one dirty tile at a time;
+ * compose does the same for whole frames into any BufferedImage.
+ */
+public class TileAtlas {
+    public static final int MAX_LOOKS = 4096;
+
+    private final int tileSize;
+    private final Font font;
+    private final Map<TETile, BufferedImage> byTile = new WeakHashMap<>();
+    private final Map<Look, BufferedImage> byLook = new HashMap<>();
+
+    private record Look(char character, int text, int background, String filepath) {
+    }
+
+    public TileAtlas(int tileSize) {
+        this.tileSize = tileSize;
+        this.font = new Font("Monaco", Font.BOLD, tileSize - 2);
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /** Number of distinct looks rasterized so far. */
+    public int size() {
+        return byLook.size();
+    }
+
+    /** The image of tile, rasterized on first use, or null once the atlas is full. */
+    public BufferedImage image(TETile tile) {
+        BufferedImage image = byTile.get(tile);
+        if (image != null) {
+            return image;
+        }
+        Look look = new Look(tile.character(), tile.textColor().getRGB(),
+                tile.backgroundColor().getRGB(), tile.filepath());
+        image = byLook.get(look);
+        if (image == null) {
+            if (byLook.size() >= MAX_LOOKS) {
+                return null;
+            }
+            image = rasterize(tile);
+            byLook.put(look, image);
+        }
+        byTile.put(tile, image);
+        return image;
+    }
+
+    private BufferedImage rasterize(TETile tile) {
+        BufferedImage image = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            if (tile.filepath() != null) {
+                // same fallback as TETile.draw: a missing image means draw the character
+                try {
+                    BufferedImage picture = ImageIO.read(new File(tile.filepath()));
+                    if (picture != null) {
+                        g.drawImage(picture, (tileSize - picture.getWidth()) / 2,
+                                (tileSize - picture.getHeight()) / 2, null);
+                        return image;
+                    }
+                } catch (IOException e) {
+                    // fall through
+                }
+            }
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(tile.backgroundColor());
+            g.fillRect(0, 0, tileSize, tileSize);
+            g.setColor(tile.textColor());
+            g.setFont(font);
+            FontMetrics metrics = g.getFontMetrics();
+            String text = Character.toString(tile.character());
+            // centred the way StdDraw.text centres a string on a point
+            float x = tileSize / 2f - metrics.stringWidth(text) / 2f;
+            float y = tileSize / 2f + metrics.getDescent();
+            g.drawString(text, x, y);
+            return image;
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Draws world into frame by copying one atlas image per tile. world[0][0] lands in the
+     * bottom left corner, xOffset and yOffset tiles in, as with TERenderer. Tiles the atlas
+     * has no room for are rasterized on the spot.
+     */
+    public void compose(TETile[][] world, BufferedImage frame, int xOffset, int yOffset) {
+        int rows = frame.getHeight() / tileSize;
+        Graphics2D g = frame.createGraphics();
+        try {
+            for (int x = 0; x < world.length; x++) {
+                for (int y = 0; y < world[x].length; y++) {
+                    TETile tile = world[x][y];
+                    BufferedImage image = image(tile);
+                    if (image == null) {
+                        image = rasterize(tile);
+                    }
+                    g.drawImage(image, (x + xOffset) * tileSize,
+                            (rows - 1 - y - yOffset) * tileSize, null);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /** A new frame exactly the size of world, composed from the atlas. */
+    public BufferedImage compose(TETile[][] world) {
+        BufferedImage frame = new BufferedImage(world.length * tileSize,
+                world[0].length * tileSize, BufferedImage.TYPE_INT_RGB);
+        compose(world, frame, 0, 0);
+        return frame;
+    }
+}
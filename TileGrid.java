@@ -0,0 +1,262 @@
+package core;
+
+import tileengine.TETile;
+import tileengine.Tileset;
+
+import utils.RandomUtils;
+
+import java.util.Arrays;
+
+/**
+ * Compact tile storage for a World. Every cell is a single byte id stored row-major
+ * (index = y * width + x) in one array; ids map to TETiles through PALETTE.
+ *
+ * Every write also keeps a Zobrist hash of the cells up to date: the XOR of key(index, id)
+ * over all cells, with NOTHING keyed as 0 so that an empty grid hashes to 0. Keys are
+ * computed with a mixing function instead of looked up in a table, which would cost 48
+ * bytes per cell. Writes from several threads at once leave the hash wrong; call rehash
+ * once they are done.
+ */
+public class TileGrid {
+    public static final byte NOTHING = 0;
+    public static final byte FLOWER = 1;
+    public static final byte SAND = 2;
+    public static final byte AVATAR = 3;
+    public static final byte LOCKED_DOOR = 4;
+    public static final byte UNLOCKED_DOOR = 5;
+
+    private static final TETile[] PALETTE = {
+        Tileset.NOTHING,
+        Tileset.FLOWER,
+        Tileset.SAND,
+        Tileset.AVATAR,
+        Tileset.LOCKED_DOOR,
+        Tileset.UNLOCKED_DOOR,
+    };
+
+    private final int width;
+    private final int height;
+    private byte[] cells;
+    private boolean shared;
+    private TETile[][] view;
+    private long hash;
+
+    public TileGrid(int width, int height) {
+        this(width, height, new byte[width * height]);
+    }
+
+    private TileGrid(int width, int height, byte[] cells) {
+        this.width = width;
+        this.height = height;
+        this.cells = cells;
+    }
+
+    /**
+     * A copy of the cells, made in O(1): both grids share one array until either of them is
+     * written to, which then copies it first. The TETile view is not carried over.
+     */
+    public TileGrid copy() {
+        TileGrid copy = new TileGrid(width, height, cells);
+        copy.hash = hash;
+        copy.shared = true;
+        shared = true;
+        return copy;
+    }
+
+    // called before every write while the cells may still be shared with a copy
+    private void own() {
+        if (shared) {
+            cells = cells.clone();
+            shared = false;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Resets every cell to NOTHING so the grid can be reused for another world. */
+    public void clear() {
+        if (shared) {
+            cells = new byte[cells.length];
+            shared = false;
+        }
+        Arrays.fill(cells, NOTHING);
+        view = null;
+        hash = 0;
+    }
+
+    public int index(int x, int y) {
+        return y * width + x;
+    }
+
+    public byte get(int x, int y) {
+        return cells[y * width + x];
+    }
+
+    public byte getAt(int index) {
+        return cells[index];
+    }
+
+    public void set(int x, int y, byte id) {
+        setAt(y * width + x, id);
+    }
+
+    public void setAt(int index, byte id) {
+        hash ^= key(index, cells[index]) ^ key(index, id);
+        setAtRaw(index, id);
+    }
+
+    /** Sets the cells x0..x1 (inclusive) of row y in one bulk fill. */
+    public void fillRow(int y, int x0, int x1, byte id) {
+        for (int at = y * width + x0, end = y * width + x1; at <= end; at++) {
+            hash ^= key(at, cells[at]) ^ key(at, id);
+        }
+        fillRowRaw(y, x0, x1, id);
+    }
+
+    /** Sets the cells y0..y1 (inclusive) of column x. */
+    public void fillColumn(int x, int y0, int y1, byte id) {
+        for (int at = y0 * width + x, end = y1 * width + x; at <= end; at += width) {
+            hash ^= key(at, cells[at]) ^ key(at, id);
+        }
+        fillColumnRaw(x, y0, y1, id);
+    }
+
+    /** Sets the cells with row-major indices from (inclusive) to to (exclusive) in one fill. */
+    public void fillRange(int from, int to, byte id) {
+        for (int i = from; i < to; i++) {
+            hash ^= key(i, cells[i]) ^ key(i, id);
+        }
+        own();
+        Arrays.fill(cells, from, to, id);
+        if (view != null) {
+            for (int i = from; i < to; i++) {
+                view[i % width][i / width] = PALETTE[id];
+            }
+        }
+    }
+
+    /*
+     * The raw writes below leave the Zobrist hash alone, so that generation tasks writing
+     * disjoint parts of the grid at once do not all update one field; whoever uses them must
+     * call rehash() once they are done. Gameplay writes go through set and friends.
+     */
+
+    /** setAt without updating the hash; see rehash. */
+    public void setAtRaw(int index, byte id) {
+        own();
+        cells[index] = id;
+        if (view != null) {
+            view[index % width][index / width] = PALETTE[id];
+        }
+    }
+
+    /** fillRow without updating the hash; see rehash. */
+    public void fillRowRaw(int y, int x0, int x1, byte id) {
+        own();
+        Arrays.fill(cells, y * width + x0, y * width + x1 + 1, id);
+        if (view != null) {
+            for (int x = x0; x <= x1; x++) {
+                view[x][y] = PALETTE[id];
+            }
+        }
+    }
+
+    /** fillColumn without updating the hash; see rehash. */
+    public void fillColumnRaw(int x, int y0, int y1, byte id) {
+        own();
+        for (int at = y0 * width + x, end = y1 * width + x; at <= end; at += width) {
+            cells[at] = id;
+        }
+        if (view != null) {
+            Arrays.fill(view[x], y0, y1 + 1, PALETTE[id]);
+        }
+    }
+
+    public TETile tile(int x, int y) {
+        return PALETTE[cells[y * width + x]];
+    }
+
+    /** The Zobrist hash of the cells, in O(1). Equal grids of equal size hash the same. */
+    public long zobrist() {
+        return hash;
+    }
+
+    /** Recomputes the Zobrist hash from scratch, after raw writes. */
+    public void rehash() {
+        long h = 0;
+        for (int i = 0; i < cells.length; i++) {
+            h ^= key(i, cells[i]);
+        }
+        hash = h;
+    }
+
+    static long key(int index, byte id) {
+        return id == NOTHING ? 0 : RandomUtils.mix(((long) index << 3 | id) + 0x5a0b7157L);
+    }
+
+    /** FNV-1a hash of the size and every cell. Equal grids always give equal fingerprints. */
+    public long fingerprint() {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ width) * 0x100000001b3L;
+        h = (h ^ height) * 0x100000001b3L;
+        for (byte id : cells) {
+            h = (h ^ id) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Direct access to the backing array for bulk scans. Callers must not write to it. */
+    byte[] cells() {
+        return cells;
+    }
+
+    /**
+     * Returns a TETile[][] view of the grid. The view is built on first use and then kept
+     * in sync by set, so repeated calls are cheap.
+     */
+    public TETile[][] toTiles() {
+        if (view == null) {
+            view = new TETile[width][height];
+            for (int y = 0; y < height; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    view[x][y] = PALETTE[cells[row + x]];
+                }
+            }
+        }
+        return view;
+    }
+
+    public static TETile tileOf(byte id) {
+        return PALETTE[id];
+    }
+
+    public static int paletteSize() {
+        return PALETTE.length;
+    }
+
+    /** The id of the tile with this character and description, or NOTHING if there is none. */
+    public static byte idOf(char c, String description) {
+        for (int i = 0; i < PALETTE.length; i++) {
+            if (PALETTE[i].character() == c && PALETTE[i].description().equals(description)) {
+                return (byte) i;
+            }
+        }
+        return NOTHING;
+    }
+
+    public static byte idOf(TETile tile) {
+        for (int i = 0; i < PALETTE.length; i++) {
+            if (PALETTE[i] == tile) {
+                return (byte) i;
+            }
+        }
+        throw new IllegalArgumentException("Tile has no palette id: " + tile.description());
+    }
+}
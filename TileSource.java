@@ -0,0 +1,10 @@
+package tileengine;
+
+/**
+ * Anything the renderer can read tiles from one cell at a time, e.g. a world too large to
+ * copy into a TETile[][] every frame. Coordinates are world tiles, y growing upwards.
+ */
+public interface TileSource {
+    /** The tile at (x, y). Never null; cells outside the source are Tileset.NOTHING. */
+    TETile tile(long x, long y);
+}
@@ -0,0 +1,116 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Wall passes for a TileGrid: every NOTHING cell next to (or diagonal to) a floor cell becomes
+ * SAND. Only floor strictly inside the border spreads walls.
+ *
+ * addWalls is bit-parallel. Each row of the floor mask is packed into longs, 64 cells per
+ * word, and walls are the 3x3 dilation of the floor mask, built from shifts and ORs, ANDed
+ * with the mask of empty cells. addWallsScalar is the original cell-by-cell pass and is kept
+ * as the reference the bitwise version is checked against.
+ */
+public class WallDilation {
+
+    /** Adds walls to every row of the grid. */
+    public static void addWalls(TileGrid grid) {
+        addWalls(grid, 0, grid.getHeight());
+        grid.rehash();
+    }
+
+    /**
+     * Adds walls to the rows [y0, y1) only. Rows just outside the range are read but never
+     * written, so disjoint ranges can run concurrently. Writes are raw: call grid.rehash()
+     * once every range is done.
+     */
+    public static void addWalls(TileGrid grid, int y0, int y1) {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        int words = (width + 63) >>> 6;
+        byte[] cells = grid.cells();
+
+        long[] below = new long[words];
+        long[] here = new long[words];
+        long[] above = new long[words];
+        long[] floor = new long[words];
+        long[] empty = new long[words];
+        spread(cells, width, height, y0 - 1, floor, below);
+        spread(cells, width, height, y0, floor, here);
+
+        for (int y = y0; y < y1; y++) {
+            spread(cells, width, height, y + 1, floor, above);
+            mask(cells, width, y, TileGrid.NOTHING, empty);
+            int row = y * width;
+            for (int w = 0; w < words; w++) {
+                long walls = (below[w] | here[w] | above[w]) & empty[w];
+                while (walls != 0) {
+                    int x = (w << 6) + Long.numberOfTrailingZeros(walls);
+                    grid.setAtRaw(row + x, TileGrid.SAND);
+                    walls &= walls - 1;
+                }
+            }
+            long[] t = below;
+            below = here;
+            here = above;
+            above = t;
+        }
+    }
+
+    /**
+     * Writes the horizontal dilation of row y's interior floor into out. Rows on or outside
+     * the border contribute nothing.
+     */
+    private static void spread(byte[] cells, int width, int height, int y, long[] floor, long[] out) {
+        int words = out.length;
+        if (y < 1 || y > height - 2) {
+            Arrays.fill(out, 0L);
+            return;
+        }
+        mask(cells, width, y, TileGrid.FLOWER, floor);
+        floor[0] &= ~1L;
+        int last = width - 1;
+        floor[last >>> 6] &= ~(1L << (last & 63));
+        for (int w = 0; w < words; w++) {
+            long left = w > 0 ? floor[w - 1] >>> 63 : 0L;
+            long right = w < words - 1 ? floor[w + 1] << 63 : 0L;
+            out[w] = floor[w] | (floor[w] << 1) | left | (floor[w] >>> 1) | right;
+        }
+    }
+
+    private static void mask(byte[] cells, int width, int y, byte id, long[] out) {
+        int row = y * width;
+        int words = out.length;
+        for (int w = 0; w < words; w++) {
+            int x0 = w << 6;
+            int n = Math.min(64, width - x0);
+            long bits = 0L;
+            for (int i = 0, at = row + x0; i < n; i++, at++) {
+                bits |= (cells[at] == id ? 1L : 0L) << i;
+            }
+            out[w] = bits;
+        }
+    }
+
+    public static void addWallsScalar(TileGrid grid) {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        for (int x = 1; x < width - 1; x++) {
+            for (int y = 1; y < height - 1; y++) {
+                if (grid.get(x, y) == TileGrid.FLOWER) {
+                    // check the 8 surrounding tiles
+                    for (int i = -1; i <= 1; i++) {
+                        for (int j = -1; j <= 1; j++) {
+                            if (i == 0 && j == 0) {
+                                continue;
+                            }
+                            if (grid.get(x + i, y + j) == TileGrid.NOTHING) {
+                                grid.set(x + i, y + j, TileGrid.SAND);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
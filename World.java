@@ -1,83 +1,243 @@
 package core;
 
 import tileengine.TETile;
-import tileengine.Tileset;
+import tileengine.TileSource;
+import utils.CopyableRandom;
+import utils.LongHashSet;
+import utils.RandomUtils;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Random;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.FileOutputStream;
 import java.io.FileInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectInputStream;
-
-public class World implements Serializable {
-    private transient TETile[][] world;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class World implements Serializable, TileSource {
+    /** Bumped whenever the same seed starts producing a different world. */
+    public static final int GENERATOR_VERSION = 1;
+    /** Where saveWorld() writes. */
+    public static final String SAVE_FILE = "world_state.txt";
+    private static final int ROOM_SPACING = 1;
+    private static final int PLACEMENT_ATTEMPTS = 30;
+    private static final int HALLWAY_NEIGHBOURS = 6;
+    private static final long PLAYER_SALT = 0x70c4e11aL;
+
+    private transient TileGrid grid;
     private int width;
     private int height;
     private int numRooms;
-    private Random r;
+    private CopyableRandom r;
     private ArrayList<Room> rooms;
+    private int[] hallways;
     private int[] player;
-    private List<int[]> avatars;
+    private transient LongHashSet avatars;
+    private transient FloorIndex freeFloor;
+    private transient boolean freeFloorStale;
+    private transient ActionJournal journal;
     private List<Character> actions;
     private long seed;
     private int[] controlledAvatar;
 
     public World(int width, int height, long seed) {
-        this.width = width;
-        this.height = height;
-        this.seed = seed;
-        r = new Random(seed);
-        rooms = new ArrayList<>();
-        avatars = new ArrayList<>();
-        actions = new ArrayList<>();
-        player = new int[2];
+        initWorld(width, height, seed);
+        makeRooms();
+        makeHallways();
+        addWallsAround();
+        addAvatars(20);
+    }
+
+    /** Like World(width, height, seed) but tries to place exactly numRooms rooms. */
+    public World(int width, int height, long seed, int numRooms) {
+        initWorld(width, height, seed);
+        makeRooms(numRooms);
+        makeHallways();
+        addWallsAround();
+        addAvatars(20);
+    }
+
+    /**
+     * Generates rooms, hallways and walls in parallel on the given pool. The result depends
+     * only on the seed, not on the pool size, but differs from the sequential constructor
+     * because every room and hallway gets its own random stream.
+     */
+    public World(int width, int height, long seed, ForkJoinPool pool) {
+        this(width, height, seed, new ParallelGenerator(pool, seed));
+    }
+
+    public World(int width, int height, long seed, int numRooms, ForkJoinPool pool) {
+        this(width, height, seed, new ParallelGenerator(pool, seed, numRooms));
+    }
 
-        initWorld();
+    /**
+     * Sequential generation into a caller-owned grid and floor index, which are cleared
+     * first. Lets batch generation reuse the big per-world buffers instead of reallocating
+     * them for every seed.
+     */
+    World(int width, int height, long seed, TileGrid scratchGrid, FloorIndex scratchFloor) {
+        scratchGrid.clear();
+        initWorld(width, height, seed, scratchGrid);
+        freeFloor = scratchFloor;
+        freeFloorStale = true;
         makeRooms();
         makeHallways();
         addWallsAround();
         addAvatars(20);
     }
 
-    private void initWorld() {
-        world = new TETile[width][height];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                world[x][y] = Tileset.NOTHING;
-            }
+    private World(TileGrid tiles, long seed) {
+        initWorld(tiles.getWidth(), tiles.getHeight(), seed, tiles);
+    }
+
+    /**
+     * An empty map with no rooms yet. Run makeRooms, makeHallways, addWallsAround and
+     * addAvatars yourself, e.g. to time each step on its own.
+     */
+    public static World blank(int width, int height, long seed) {
+        return new World(new TileGrid(width, height), seed);
+    }
+
+    private World(World other, List<Character> actions) {
+        width = other.width;
+        height = other.height;
+        numRooms = other.numRooms;
+        seed = other.seed;
+        r = other.r.copy();
+        grid = other.grid.copy();
+        rooms = new ArrayList<>(other.rooms);
+        hallways = other.hallways.clone();
+        player = other.player.clone();
+        avatars = new LongHashSet(other.avatars);
+        // take depends on the order of the free cells, not just on which cells are free
+        if (other.freeFloor != null && !other.freeFloorStale) {
+            freeFloor = other.freeFloor.copy();
         }
+        this.actions = new ArrayList<>(actions);
+        controlledAvatar = other.controlledAvatar == null ? null : other.controlledAvatar.clone();
+    }
+
+    /**
+     * An independent deep copy: same tiles, avatars, recorded actions and random state, so
+     * both worlds evolve identically under the same inputs. The copy has no journal. Tiles
+     * and the free floor index are copied on write, so a copy costs O(avatars + actions).
+     */
+    public World copy() {
+        return new World(this, actions);
+    }
+
+    /**
+     * Like copy, but with actions as its recorded actions instead of this world's, e.g. none
+     * for Replay's keyframes, which would otherwise each hold all the actions before them.
+     */
+    World copy(List<Character> actions) {
+        return new World(this, actions);
+    }
+
+    private World(int width, int height, long seed, ParallelGenerator generator) {
+        initWorld(width, height, seed);
+        hallways = generator.generate(grid, rooms);
+        numRooms = rooms.size();
+        addAvatars(20);
+    }
+
+    private void initWorld(int width, int height, long seed) {
+        initWorld(width, height, seed, new TileGrid(width, height));
+    }
+
+    private void initWorld(int width, int height, long seed, TileGrid tiles) {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+        r = new CopyableRandom(seed);
+        rooms = new ArrayList<>();
+        hallways = new int[0];
+        avatars = new LongHashSet();
+        actions = new ArrayList<>();
+        player = new int[2];
+        grid = tiles;
     }
+
     public void makeRooms() {
         int maxRoom = 20;
         int minRoom = 10;
-        numRooms = r.nextInt(maxRoom - minRoom) + minRoom;
-        for (int i = 0; i < numRooms; i++) {
-            int maxSize = 10;
-            int rX = r.nextInt(width - maxSize - 3) + 2;
-            int rY = r.nextInt(height - maxSize - 3) + 2;
-            int minSize = 4;
-            int rH = r.nextInt(maxSize - minSize - 1) + minSize + 1;
-            int rW = r.nextInt(maxSize - minSize - 1) + minSize + 1;
-            Room room = new Room(rX, rY, rH, rW);
-            genRoom(room);
-            rooms.add(room);
+        makeRooms(r.nextInt(maxRoom - minRoom) + minRoom);
+    }
+
+    /**
+     * Tries to add count rooms. Each room gets up to PLACEMENT_ATTEMPTS random positions and is
+     * dropped if every one of them overlaps or touches a room that is already placed.
+     */
+    public void makeRooms(int count) {
+        int maxSize = 10;
+        int minSize = 4;
+        RoomPlacer placer = new RoomPlacer(width, height, maxSize, ROOM_SPACING);
+        for (Room room : rooms) {
+            placer.add(room);
+        }
+        for (int i = 0; i < count; i++) {
+            for (int attempt = 0; attempt < PLACEMENT_ATTEMPTS; attempt++) {
+                int rX = r.nextInt(width - maxSize - 3) + 2;
+                int rY = r.nextInt(height - maxSize - 3) + 2;
+                int rH = r.nextInt(maxSize - minSize - 1) + minSize + 1;
+                int rW = r.nextInt(maxSize - minSize - 1) + minSize + 1;
+                Room room = new Room(rX, rY, rH, rW);
+                if (placer.tryPlace(room)) {
+                    genRoom(room);
+                    rooms.add(room);
+                    break;
+                }
+            }
         }
+        numRooms = rooms.size();
     }
     public void genRoom(Room room) {
+        freeFloorStale = true;
         for (int x = room.x(); x < room.x() + room.width(); x++) {
             for (int y = room.y(); y < room.y() + room.height(); y++) {
-                world[x][y] = Tileset.FLOWER;
+                grid.set(x, y, TileGrid.FLOWER);
             }
         }
     }
 
     public TETile[][] getTiles() {
-        return world;
+        return grid.toTiles();
+    }
+
+    /** The tile at (x, y), or NOTHING outside the world. Reads the grid directly. */
+    @Override
+    public TETile tile(long x, long y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return TileGrid.tileOf(TileGrid.NOTHING);
+        }
+        return grid.tile((int) x, (int) y);
+    }
+
+    public int getPlayerX() {
+        return player[0];
+    }
+
+    public int getPlayerY() {
+        return player[1];
+    }
+
+    TileGrid getGrid() {
+        return grid;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public List<Room> getRooms() {
+        return rooms;
     }
 
     public int getWidth() {
@@ -89,69 +249,43 @@ public class World implements Serializable {
     }
 
 
+    /**
+     * Connects the rooms along a minimum spanning tree of their k-nearest-neighbour graph,
+     * plus a few loops, and digs each hallway between random points inside its two rooms.
+     */
     public void makeHallways() {
-        for (int i = 0; i < rooms.size() - 1; i++) {
-            int xCoord1 = rooms.get(i).x();
-            int yCoord1 = rooms.get(i).y();
-            int height1 = rooms.get(i).height();
-            int width1 = rooms.get(i).width();
-
-            //random point within this room
-            int currx = r.nextInt(width1 - 2) + xCoord1 + 1;
-            int curry = r.nextInt(height1 - 2) + yCoord1 + 1;
-
-            int xCoord2 = rooms.get(i + 1).x();
-            int yCoord2 = rooms.get(i + 1).y();
-            int height2 = rooms.get(i + 1).height();
-            int width2 = rooms.get(i + 1).width();
-
-            int nextx = r.nextInt(width2 - 2) + xCoord2 + 1;
-            int nexty = r.nextInt(height2 - 2) + yCoord2 + 1;
-
-            while (currx != nextx || curry != nexty) {
-                if (currx < nextx) {
-                    currx++;
-                } else if (currx > nextx) {
-                    currx--;
-                } else if (curry < nexty) {
-                    curry++;
-                } else if (curry > nexty) {
-                    curry--;
-                }
-
-                if (isValid(currx, curry)) {
-                    world[currx][curry] = Tileset.FLOWER;
-                }
-            }
+        freeFloorStale = true;
+        hallways = HallwayPlanner.plan(rooms, HALLWAY_NEIGHBOURS, rooms.size() / 10, r);
+        for (int e = 0; e < hallways.length; e += 2) {
+            Room from = rooms.get(hallways[e]);
+            Room to = rooms.get(hallways[e + 1]);
+
+            //random point within each room
+            int currx = r.nextInt(from.width() - 2) + from.x() + 1;
+            int curry = r.nextInt(from.height() - 2) + from.y() + 1;
+            int nextx = r.nextInt(to.width() - 2) + to.x() + 1;
+            int nexty = r.nextInt(to.height() - 2) + to.y() + 1;
+
+            HallwayPlanner.carve(grid, currx, curry, nextx, nexty);
         }
     }
 
+    /** Hallways as pairs of indices into getRooms(), two ints per hallway. */
+    public int[] getHallways() {
+        return hallways;
+    }
+
     public boolean isValid(int x, int y) {
         return (x >= 0 && y >= 0 && x < width && y < height);
     }
 
     public void addWallsAround() {
-        for (int x = 1; x < width - 1; x++) {
-            for (int y = 1; y < height - 1; y++) {
-                if (world[x][y] == Tileset.FLOWER) {
-                    // check the 8 surrounding tiles
-                    for (int i = -1; i <= 1; i++) {
-                        for (int j = -1; j <= 1; j++) {
-                            // don't do center tile duh
-                            if (i == 0 && j == 0) {
-                                continue;
-                            }
-                            int checkX = x + i;
-                            int checkY = y + j;
-
-                            if (isValid(checkX, checkY) && world[checkX][checkY] == Tileset.NOTHING) {
-                                world[checkX][checkY] = Tileset.SAND;
-                            }
-                        }
-                    }
-                }
-            }
-        }
+        WallDilation.addWalls(grid);
+    }
+
+    /** The original cell-by-cell wall pass. Same result as addWallsAround, just slower. */
+    public void addWallsAroundScalar() {
+        WallDilation.addWallsScalar(grid);
     }
 
     public void setControlledAvatar(int[] controlledAvatar) {
@@ -159,49 +293,53 @@ public class World implements Serializable {
     }
 
     public void addAvatar() {
-        int flowerTiles = 0;
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                if (world[x][y] == Tileset.FLOWER) {
-                    flowerTiles++;
-                }
-            }
+        int cell = freeFloor().take(r);
+        grid.setAt(cell, TileGrid.AVATAR);
+        player[0] = cell % width;
+        player[1] = cell / width;
+    }
+
+    public void addAvatars(int numAvatars) {
+        FloorIndex free = freeFloor();
+        for (int i = 0; i < numAvatars; i++) {
+            int cell = free.take(r);
+            grid.setAt(cell, TileGrid.AVATAR);
+            avatars.add(pack(cell % width, cell / width));
         }
+    }
 
-        boolean avatarPlaced = false;
+    /**
+     * Index of the floor cells nobody stands on, built on first use. Generation steps that
+     * add floor mark it stale so that it is rebuilt; after that move keeps it up to date.
+     */
+    private FloorIndex freeFloor() {
+        if (freeFloor == null) {
+            freeFloor = FloorIndex.of(grid);
+        } else if (freeFloorStale) {
+            freeFloor.rebuild(grid);
+        }
+        freeFloorStale = false;
+        return freeFloor;
+    }
 
-        while (!avatarPlaced) {
-            int x = r.nextInt(width);
-            int y = r.nextInt(height);
+    static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
 
-            if (world[x][y] == Tileset.FLOWER && isAccessible(x, y)) {
-                world[x][y] = Tileset.AVATAR;
-                player[0] = x;
-                player[1] = y;
-                avatarPlaced = true;
-            }
-        }
+    /**
+     * A 64-bit hash of the tiles and the player position, kept up to date as the world
+     * changes, so it costs O(1). Equal states always hash the same.
+     */
+    public long stateHash() {
+        return grid.zobrist() ^ RandomUtils.mix(pack(player[0], player[1]) ^ PLAYER_SALT);
     }
 
-    private boolean isAccessible(int x, int y) {
-        return world[x][y] != Tileset.SAND;
+    public boolean hasAvatarAt(int x, int y) {
+        return avatars.contains(pack(x, y));
     }
 
-    public void addAvatars(int numAvatars) {
-        for (int i = 0; i < numAvatars; i++) {
-            boolean avatarPlaced = false;
-            while (!avatarPlaced) {
-                int x = r.nextInt(width);
-                int y = r.nextInt(height);
-
-                if (world[x][y] == Tileset.FLOWER) {
-                    world[x][y] = Tileset.AVATAR;
-                    int[] avatarPosition = {x, y};
-                    avatars.add(avatarPosition);
-                    avatarPlaced = true;
-                }
-            }
-        }
+    public int getAvatarCount() {
+        return avatars.size();
     }
 
     public void move(char key) {
@@ -210,18 +348,17 @@ public class World implements Serializable {
         int newY = player[1] + delta[1];
 
         if (isValidMove(newX, newY)) {
-            for (int[] avatarPosition : avatars) {
-                if (newX == avatarPosition[0] && newY == avatarPosition[1]) {
-                    // Eat the avatar
-                    avatars.remove(avatarPosition);
-                    break;
-                }
-            }
+            // Eat the avatar, if there is one
+            avatars.remove(pack(newX, newY));
 
-            world[player[0]][player[1]] = Tileset.FLOWER;
+            grid.set(player[0], player[1], TileGrid.FLOWER);
+            if (freeFloor != null && !freeFloorStale) {
+                freeFloor.add(grid.index(player[0], player[1]));
+                freeFloor.remove(grid.index(newX, newY));
+            }
             player[0] = newX;
             player[1] = newY;
-            world[newX][newY] = Tileset.AVATAR;
+            grid.set(newX, newY, TileGrid.AVATAR);
 
             recordAction(key);
         }
@@ -229,6 +366,8 @@ public class World implements Serializable {
 
     private int[] getDelta(char key) {
         int[] delta = {0, 0};
+        // AutograderBuddy upper-cases its input, the keyboard gives lower case
+        key = Character.toLowerCase(key);
 
         if (key == 'w') {
             delta[1] = 1;
@@ -244,7 +383,7 @@ public class World implements Serializable {
     }
 
     private boolean isValidMove(int x, int y) {
-        return x >= 0 && x < width && y >= 0 && y < height && world[x][y] != Tileset.SAND;
+        return x >= 0 && x < width && y >= 0 && y < height && grid.get(x, y) != TileGrid.SAND;
     }
 
     public boolean handleQuit(char key) {
@@ -258,25 +397,35 @@ public class World implements Serializable {
     }
 
     public void saveWorld() {
-        try (FileOutputStream fileOut = new FileOutputStream("world_state.txt");
-             ObjectOutputStream out = new ObjectOutputStream(fileOut)) {
-            out.writeObject(this);
-            out.flush();
+        saveWorld(SAVE_FILE);
+        saveActions();
+    }
+
+    /** Writes the world in the compact WorldCodec format, deflated. */
+    public void saveWorld(String path) {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path))) {
+            WorldCodec.write(this, out, true);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        saveActions();
+    }
+
+    /** Reads a world written by saveWorld(path). */
+    public static World loadWorld(String path) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+            return WorldCodec.read(in);
+        }
     }
 
     private void writeObject(ObjectOutputStream oos) throws IOException {
         oos.defaultWriteObject();
         oos.writeInt(width);
         oos.writeInt(height);
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                oos.writeChar(world[i][j].character());
-                oos.writeUTF(world[i][j].description());
-            }
+        WorldCodec.writeTiles(grid, oos);
+        long[] avatarKeys = avatars.toArray();
+        oos.writeInt(avatarKeys.length);
+        for (long key : avatarKeys) {
+            oos.writeLong(key);
         }
     }
 
@@ -286,45 +435,78 @@ public class World implements Serializable {
         int h = ois.readInt();
         this.width = w;
         this.height = h;
-        this.world = new TETile[w][h];
-        for (int i = 0; i < w; i++) {
-            for (int j = 0; j < h; j++) {
-                char c = ois.readChar();
-                String description = ois.readUTF();
-                world[i][j] = getTETileFromCharAndDescription(c, description);
-            }
+        this.grid = WorldCodec.readTiles(ois, w, h);
+        int numAvatars = ois.readInt();
+        this.avatars = new LongHashSet(numAvatars);
+        for (int i = 0; i < numAvatars; i++) {
+            avatars.add(ois.readLong());
         }
     }
 
+    /** Rebuilds a world from the parts WorldCodec saved. */
+    static World restore(long seed, TileGrid tiles, List<Room> rooms, int[] hallways,
+                         int[] player, long[] avatarKeys, List<Character> actions,
+                         int[] controlledAvatar) {
+        World world = new World(tiles, seed);
+        world.rooms.addAll(rooms);
+        world.numRooms = rooms.size();
+        world.hallways = hallways;
+        world.player = player;
+        for (long key : avatarKeys) {
+            world.avatars.add(key);
+        }
+        world.actions.addAll(actions);
+        world.controlledAvatar = controlledAvatar;
+        world.freeFloorStale = true;
+        return world;
+    }
 
-    private TETile getTETileFromCharAndDescription(char c, String description) {
-        switch (c) {
-            case '@':
-                if ("you".equals(description)) {
-                    return Tileset.AVATAR;
-                }
-                break;
-            case '·':
-                if ("floor".equals(description)) {
-                    return Tileset.FLOWER;
-                }
-                break;
-            case ' ':
-                if ("nothing".equals(description)) {
-                    return Tileset.NOTHING;
-                }
-                if ("sand".equals(description)) {
-                    return Tileset.SAND;
-                }
-                break;
-            default:
-                return Tileset.NOTHING;
+    int[] getPlayer() {
+        return player;
+    }
+
+    /** Moves the avatar at grid index from to the free cell to; for NpcSimulation. */
+    void moveAvatar(int from, int to) {
+        avatars.remove(pack(from % width, from / width));
+        avatars.add(pack(to % width, to / width));
+        grid.setAt(from, TileGrid.FLOWER);
+        grid.setAt(to, TileGrid.AVATAR);
+        if (freeFloor != null && !freeFloorStale) {
+            freeFloor.add(from);
+            freeFloor.remove(to);
+        }
+    }
+
+    /** Rough heap size of the tiles and the free floor index, for WorldCache's budget. */
+    long bytes() {
+        long bytes = (long) width * height;
+        if (freeFloor != null) {
+            bytes += freeFloor.bytes();
         }
-        return Tileset.NOTHING; //fallback if nothing found
+        return bytes;
+    }
+
+    long[] getAvatarKeys() {
+        return avatars.toArray();
+    }
+
+    int[] getControlledAvatar() {
+        return controlledAvatar;
     }
 
     public void recordAction(char action) {
         actions.add(action);
+        if (journal != null) {
+            try {
+                journal.append(action);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    void setJournal(ActionJournal journal) {
+        this.journal = journal;
     }
 
     public List<Character> getRecordedActions() {
@@ -0,0 +1,160 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Generates many worlds of one size, e.g. for seed sweeps and test suites. Seeds are handed
+ * out to a fixed number of worker threads, and each worker reuses one TileGrid and one
+ * FloorIndex for every world it builds, so memory stays at a few grids' worth however many
+ * seeds are run.
+ *
+ * Sinks are called from the worker threads, concurrently, so they must be thread safe. The
+ * World handed to a sink is rebuilt in place for the next seed as soon as the sink returns;
+ * anything that has to outlive the call (tiles, a fingerprint) must be copied out.
+ */
+public class WorldBatch {
+    private final int width;
+    private final int height;
+    private final int parallelism;
+
+    public WorldBatch(int width, int height, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.width = width;
+        this.height = height;
+        this.parallelism = parallelism;
+    }
+
+    /** Generates a world for every seed in [fromSeed, toSeed). */
+    public BatchStats forEachWorld(long fromSeed, long toSeed, Consumer<World> sink) {
+        long count = toSeed - fromSeed;
+        if (count < 0 || count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad seed range: " + fromSeed + " to " + toSeed);
+        }
+        return run((int) count, i -> fromSeed + i, sink);
+    }
+
+    public BatchStats forEachWorld(long[] seeds, Consumer<World> sink) {
+        return run(seeds.length, i -> seeds[i], sink);
+    }
+
+    public BatchStats forEachSummary(long fromSeed, long toSeed, Consumer<WorldSummary> sink) {
+        return forEachWorld(fromSeed, toSeed, world -> sink.accept(WorldSummary.of(world)));
+    }
+
+    public BatchStats forEachSummary(long[] seeds, Consumer<WorldSummary> sink) {
+        return forEachWorld(seeds, world -> sink.accept(WorldSummary.of(world)));
+    }
+
+    private BatchStats run(int count, IntToLongFunction seedAt, Consumer<World> sink) {
+        AtomicInteger next = new AtomicInteger();
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int w = 0; w < Math.min(parallelism, Math.max(1, count)); w++) {
+            workers.add(() -> {
+                TileGrid grid = new TileGrid(width, height);
+                FloorIndex floor = new FloorIndex(width * height);
+                for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                    sink.accept(new World(width, height, seedAt.applyAsLong(i), grid, floor));
+                }
+                return null;
+            });
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(workers.size());
+        try {
+            for (Future<Void> result : pool.invokeAll(workers)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return new BatchStats(count, System.nanoTime() - start);
+    }
+
+    /** Throughput of one batch run. */
+    public static class BatchStats {
+        private final long worlds;
+        private final long nanos;
+
+        BatchStats(long worlds, long nanos) {
+            this.worlds = worlds;
+            this.nanos = nanos;
+        }
+
+        public long worlds() {
+            return worlds;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        public double worldsPerSecond() {
+            return nanos == 0 ? 0 : worlds * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d worlds in %.1f ms (%.1f worlds/s)", worlds, nanos / 1e6,
+                    worldsPerSecond());
+        }
+    }
+
+    /** What a sweep usually wants to keep from a world, without holding on to its tiles. */
+    public static class WorldSummary {
+        private final long seed;
+        private final long fingerprint;
+        private final int rooms;
+        private final int hallways;
+        private final int avatars;
+
+        WorldSummary(long seed, long fingerprint, int rooms, int hallways, int avatars) {
+            this.seed = seed;
+            this.fingerprint = fingerprint;
+            this.rooms = rooms;
+            this.hallways = hallways;
+            this.avatars = avatars;
+        }
+
+        static WorldSummary of(World world) {
+            return new WorldSummary(world.getSeed(), world.stateHash(),
+                    world.getRooms().size(), world.getHallways().length / 2, world.getAvatarCount());
+        }
+
+        public long seed() {
+            return seed;
+        }
+
+        public long fingerprint() {
+            return fingerprint;
+        }
+
+        public int rooms() {
+            return rooms;
+        }
+
+        public int hallways() {
+            return hallways;
+        }
+
+        public int avatars() {
+            return avatars;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers freshly generated worlds by (seed, width, height, generator version), so that
+ * asking for the same seed again skips generation. get hands out copies, which share their
+ * tiles with the cached world until they are changed, so callers can play on them freely.
+ *
+ * The cache is an LRU bounded by a memory budget, like the chunk cache of ChunkedWorld.
+ * Worlds are generated outside the lock, so misses for different seeds run concurrently.
+ */
+public class WorldCache {
+    public static final long DEFAULT_MEMORY_BUDGET = 16L * 1024 * 1024;
+
+    // rough per-world cost on top of tiles and floor index: World, rooms, avatar set, map entry
+    private static final int WORLD_OVERHEAD = 1024;
+
+    private final long memoryBudget;
+    private final LinkedHashMap<Key, World> worlds = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryUsed;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private record Key(long seed, int width, int height, int version) {
+    }
+
+    public WorldCache() {
+        this(DEFAULT_MEMORY_BUDGET);
+    }
+
+    public WorldCache(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /** A copy of the world new World(width, height, seed) would build. */
+    public World get(long seed, int width, int height) {
+        Key key = new Key(seed, width, height, World.GENERATOR_VERSION);
+        synchronized (this) {
+            World cached = worlds.get(key);
+            if (cached != null) {
+                hits++;
+                return cached.copy();
+            }
+            misses++;
+        }
+        World generated = new World(width, height, seed);
+        synchronized (this) {
+            World raced = worlds.putIfAbsent(key, generated);
+            if (raced != null) {
+                return raced.copy();
+            }
+            memoryUsed += bytes(generated);
+            evict();
+            return generated.copy();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, World>> it = worlds.entrySet().iterator();
+        while (memoryUsed > memoryBudget && worlds.size() > 1) {
+            World eldest = it.next().getValue();
+            it.remove();
+            memoryUsed -= bytes(eldest);
+            evictions++;
+        }
+    }
+
+    private static long bytes(World world) {
+        return world.bytes() + WORLD_OVERHEAD;
+    }
+
+    public synchronized void clear() {
+        worlds.clear();
+        memoryUsed = 0;
+    }
+
+    public synchronized int size() {
+        return worlds.size();
+    }
+
+    public synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** Fraction of get calls answered from the cache, or 0 before the first call. */
+    public synchronized double hitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d worlds, %d bytes, %d hits, %d misses (%.1f%%), %d evicted",
+                worlds.size(), memoryUsed, hits, misses, 100 * hitRate(), evictions);
+    }
+}
@@ -0,0 +1,228 @@
+package core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Versioned binary save format for a World, read and written as a stream without going
+ * through Java object serialization. All counts and coordinates are unsigned varints.
+ *
+ *   int    magic "EWSV"
+ *   byte   version
+ *   byte   flags, bit 0 set when everything after this byte is deflated
+ *   width, height, then the seed as 8 bytes
+ *   palette: number of ids, then for each id its character and UTF description
+ *   tiles: (id, run length) pairs covering the grid in row-major order
+ *   rooms: count, then x, y, height, width of each
+ *   hallways: number of ints, then the ints
+ *   player: x, y
+ *   avatars: count, then x, y of each
+ *   actions: count, then each action character
+ *   controlled avatar: 0, or 1 followed by x, y
+ *
+ * The palette lets a newer build read an older file even if tile ids have been renumbered:
+ * tiles are matched by character and description, and unknown ones load as NOTHING.
+ */
+public class WorldCodec {
+    static final int MAGIC = 0x45575356;
+    static final int VERSION = 1;
+    private static final int DEFLATED = 1;
+
+    public static void write(World world, OutputStream out, boolean compress) throws IOException {
+        write(world, out, compress, true);
+    }
+
+    /** Like write, but leaves out the recorded actions when includeActions is false. */
+    static void write(World world, OutputStream out, boolean compress, boolean includeActions)
+            throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(compress ? DEFLATED : 0);
+        header.flush();
+
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        OutputStream body = compress ? new DeflaterOutputStream(out, deflater, 1 << 16) : out;
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(body, 1 << 16));
+        try {
+            writeBody(world, data, includeActions);
+            data.flush();
+            if (compress) {
+                ((DeflaterOutputStream) body).finish();
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    private static void writeBody(World world, DataOutputStream out, boolean includeActions)
+            throws IOException {
+        TileGrid grid = world.getGrid();
+        writeVarint(out, grid.getWidth());
+        writeVarint(out, grid.getHeight());
+        out.writeLong(world.getSeed());
+        writeTiles(grid, out);
+
+        List<Room> rooms = world.getRooms();
+        writeVarint(out, rooms.size());
+        for (Room room : rooms) {
+            writeVarint(out, room.x());
+            writeVarint(out, room.y());
+            writeVarint(out, room.height());
+            writeVarint(out, room.width());
+        }
+        int[] hallways = world.getHallways();
+        writeVarint(out, hallways.length);
+        for (int room : hallways) {
+            writeVarint(out, room);
+        }
+
+        int[] player = world.getPlayer();
+        writeVarint(out, player[0]);
+        writeVarint(out, player[1]);
+        long[] avatars = world.getAvatarKeys();
+        writeVarint(out, avatars.length);
+        for (long key : avatars) {
+            writeVarint(out, (int) (key >>> 32));
+            writeVarint(out, (int) key);
+        }
+        List<Character> actions = includeActions ? world.getRecordedActions() : List.of();
+        writeVarint(out, actions.size());
+        for (char action : actions) {
+            writeVarint(out, action);
+        }
+        int[] controlled = world.getControlledAvatar();
+        if (controlled == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            writeVarint(out, controlled[0]);
+            writeVarint(out, controlled[1]);
+        }
+    }
+
+    public static World read(InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a saved world.");
+        }
+        int version = header.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported save version " + version + ".");
+        }
+        int flags = header.readUnsignedByte();
+        InputStream body = (flags & DEFLATED) != 0 ? new InflaterInputStream(in) : in;
+        return readBody(new DataInputStream(new BufferedInputStream(body, 1 << 16)));
+    }
+
+    private static World readBody(DataInputStream in) throws IOException {
+        int width = readVarint(in);
+        int height = readVarint(in);
+        long seed = in.readLong();
+        TileGrid grid = readTiles(in, width, height);
+
+        int numRooms = readVarint(in);
+        List<Room> rooms = new ArrayList<>(numRooms);
+        for (int i = 0; i < numRooms; i++) {
+            rooms.add(new Room(readVarint(in), readVarint(in), readVarint(in), readVarint(in)));
+        }
+        int[] hallways = new int[readVarint(in)];
+        for (int i = 0; i < hallways.length; i++) {
+            hallways[i] = readVarint(in);
+        }
+
+        int[] player = {readVarint(in), readVarint(in)};
+        long[] avatars = new long[readVarint(in)];
+        for (int i = 0; i < avatars.length; i++) {
+            avatars[i] = World.pack(readVarint(in), readVarint(in));
+        }
+        int numActions = readVarint(in);
+        List<Character> actions = new ArrayList<>(numActions);
+        for (int i = 0; i < numActions; i++) {
+            actions.add((char) readVarint(in));
+        }
+        int[] controlled = null;
+        if (in.readByte() != 0) {
+            controlled = new int[] {readVarint(in), readVarint(in)};
+        }
+        return World.restore(seed, grid, rooms, hallways, player, avatars, actions, controlled);
+    }
+
+    /** Writes the palette and the run-length encoded tile ids of grid. */
+    static void writeTiles(TileGrid grid, DataOutput out) throws IOException {
+        writeVarint(out, TileGrid.paletteSize());
+        for (int id = 0; id < TileGrid.paletteSize(); id++) {
+            out.writeChar(TileGrid.tileOf((byte) id).character());
+            out.writeUTF(TileGrid.tileOf((byte) id).description());
+        }
+        byte[] cells = grid.cells();
+        int i = 0;
+        while (i < cells.length) {
+            byte id = cells[i];
+            int run = 1;
+            while (i + run < cells.length && cells[i + run] == id) {
+                run++;
+            }
+            writeVarint(out, id);
+            writeVarint(out, run);
+            i += run;
+        }
+    }
+
+    /** Reads what writeTiles wrote into a new width x height grid. */
+    static TileGrid readTiles(DataInput in, int width, int height) throws IOException {
+        int paletteSize = readVarint(in);
+        byte[] ids = new byte[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            char c = in.readChar();
+            ids[i] = TileGrid.idOf(c, in.readUTF());
+        }
+        TileGrid grid = new TileGrid(width, height);
+        int total = width * height;
+        int at = 0;
+        while (at < total) {
+            int id = readVarint(in);
+            int run = readVarint(in);
+            if (id >= paletteSize || run <= 0 || run > total - at) {
+                throw new IOException("Corrupt tile data at cell " + at + ".");
+            }
+            grid.fillRange(at, at + run, ids[id]);
+            at += run;
+        }
+        return grid;
+    }
+
+    static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint.");
+    }
+}
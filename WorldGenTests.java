@@ -1,9 +1,58 @@
+import core.ActionJournal;
 import core.AutograderBuddy;
+import core.ChunkedWorld;
+import core.FrameStats;
+import core.GameLoop;
+import core.FlowField;
+import core.Hud;
+import core.NpcSimulation;
+import core.Pathfinder;
+import core.Replay;
+import core.Room;
+import core.RoomPlacer;
+import core.TileGrid;
+import core.WallDilation;
+import core.World;
+import core.WorldBatch;
+import core.WorldCache;
+import core.WorldCodec;
 import edu.princeton.cs.algs4.StdDraw;
 import org.junit.jupiter.api.Test;
+import tileengine.AnsiRenderer;
 import tileengine.TERenderer;
+import tileengine.Camera;
 import tileengine.TETile;
+import tileengine.TileAtlas;
+import tileengine.TileSource;
 import tileengine.Tileset;
+import utils.LongHashSet;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class WorldGenTests {
     @Test
@@ -26,4 +75,1022 @@ public class WorldGenTests {
     public void basicSaveTest() {
         // TODO: write a test that calls getWorldFromInput twice, with "n123swasd:q" and with "lwasd"
     }
+
+    @Test
+    public void chunkedWorldTest() {
+        // a tiny budget forces constant eviction; the terrain must not change because of it
+        ChunkedWorld roomy = new ChunkedWorld(42);
+        ChunkedWorld cramped = new ChunkedWorld(42, 64, 4 * 64 * 64);
+        for (long y = -200; y < 200; y += 3) {
+            for (long x = -200; x < 200; x += 3) {
+                assertEquals(roomy.get(x, y), cramped.get(x, y));
+            }
+        }
+        assertTrue(cramped.getMemoryUsed() <= 4 * 64 * 64);
+
+        // floor never touches the void, including across chunk borders
+        for (long y = -130; y < 130; y++) {
+            for (long x = -130; x < 130; x++) {
+                if (roomy.get(x, y) != TileGrid.FLOWER) {
+                    continue;
+                }
+                for (int i = -1; i <= 1; i++) {
+                    for (int j = -1; j <= 1; j++) {
+                        assertTrue(roomy.get(x + i, y + j) != TileGrid.NOTHING);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelGenerationTest() {
+        // the same seed must give the same world no matter how many threads generate it
+        for (long seed : new long[] {1, 123, 1234567890123456789L}) {
+            String expected = null;
+            for (int threads : new int[] {1, 2, 4, 8}) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    String tiles = TETile.toString(new World(200, 150, seed, pool).getTiles());
+                    if (expected == null) {
+                        expected = tiles;
+                    }
+                    assertEquals(expected, tiles);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void wallDilationTest() {
+        // random noise hits every edge case: border floor, word boundaries, odd widths
+        Random r = new Random(61);
+        for (int trial = 0; trial < 200; trial++) {
+            int width = r.nextInt(200) + 1;
+            int height = r.nextInt(60) + 1;
+            TileGrid scalar = new TileGrid(width, height);
+            TileGrid bitwise = new TileGrid(width, height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int roll = r.nextInt(10);
+                    byte id = roll < 2 ? TileGrid.FLOWER : roll < 3 ? TileGrid.AVATAR : TileGrid.NOTHING;
+                    scalar.set(x, y, id);
+                    bitwise.set(x, y, id);
+                }
+            }
+            WallDilation.addWallsScalar(scalar);
+            WallDilation.addWalls(bitwise);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    assertEquals(scalar.get(x, y), bitwise.get(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void longHashSetTest() {
+        Random r = new Random(5);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 200000; i++) {
+            // a small key range makes collisions, removals and re-adds frequent
+            long key = r.nextInt(5000) - 2500L;
+            if (r.nextInt(3) == 0) {
+                key = Long.MIN_VALUE;
+            }
+            if (r.nextBoolean()) {
+                assertEquals(expected.add(key), set.add(key));
+            } else {
+                assertEquals(expected.remove(key), set.remove(key));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (long key = -2600; key < 2600; key++) {
+            assertEquals(expected.contains(key), set.contains(key));
+        }
+    }
+
+    @Test
+    public void roomPlacementTest() {
+        World sequential = new World(1000, 1000, 7, 3000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        World parallel;
+        try {
+            parallel = new World(1000, 1000, 7, 3000, pool);
+        } finally {
+            pool.shutdown();
+        }
+        for (World world : new World[] {sequential, parallel}) {
+            assertTrue(world.getRooms().size() > 2000);
+            // re-placing every room with no spacing must never collide
+            RoomPlacer check = new RoomPlacer(1000, 1000, 10, 0);
+            for (Room room : world.getRooms()) {
+                assertTrue(check.tryPlace(room));
+            }
+        }
+    }
+
+    @Test
+    public void hallwayConnectivityTest() {
+        World world = new World(1000, 1000, 11, 3000);
+        int rooms = world.getRooms().size();
+        assertTrue(world.getHallways().length / 2 >= rooms - 1);
+
+        // flood the walkable cells from the first room; every room must be reached
+        TETile[][] tiles = world.getTiles();
+        boolean[][] seen = new boolean[1000][1000];
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        Room first = world.getRooms().get(0);
+        queue.add(new int[] {first.x(), first.y()});
+        seen[first.x()][first.y()] = true;
+        while (!queue.isEmpty()) {
+            int[] p = queue.poll();
+            int[][] steps = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+            for (int[] step : steps) {
+                int x = p[0] + step[0];
+                int y = p[1] + step[1];
+                if (!seen[x][y] && (tiles[x][y] == Tileset.FLOWER || tiles[x][y] == Tileset.AVATAR)) {
+                    seen[x][y] = true;
+                    queue.add(new int[] {x, y});
+                }
+            }
+        }
+        for (Room room : world.getRooms()) {
+            assertTrue(seen[room.x()][room.y()]);
+        }
+    }
+
+    @Test
+    public void avatarSpawnTest() {
+        World world = new World(60, 60, 8);
+        int floor = 0;
+        for (TETile[] column : world.getTiles()) {
+            for (TETile tile : column) {
+                if (tile == Tileset.FLOWER) {
+                    floor++;
+                }
+            }
+        }
+        // every free floor cell can be filled, one more avatar has nowhere to go
+        world.addAvatars(floor);
+        assertEquals(20 + floor, world.getAvatarCount());
+        assertThrows(IllegalStateException.class, () -> world.addAvatars(1));
+    }
+
+    @Test
+    public void worldBatchTest() {
+        // reused scratch buffers and thread count must not leak into the results
+        Map<Long, Long> single = new ConcurrentHashMap<>();
+        Map<Long, Long> many = new ConcurrentHashMap<>();
+        new WorldBatch(80, 60, 1).forEachSummary(0, 300, s -> single.put(s.seed(), s.fingerprint()));
+        WorldBatch.BatchStats stats = new WorldBatch(80, 60, 4)
+                .forEachSummary(0, 300, s -> many.put(s.seed(), s.fingerprint()));
+        assertEquals(300L, stats.worlds());
+        assertEquals(single, many);
+        assertEquals(300, new HashSet<>(many.values()).size());
+    }
+
+    @Test
+    public void binarySaveTest() throws IOException {
+        World world = new World(80, 60, 77);
+        world.move('w');
+        world.move('d');
+        world.move('d');
+        for (boolean compress : new boolean[] {false, true}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            WorldCodec.write(world, bytes, compress);
+            World loaded = WorldCodec.read(new ByteArrayInputStream(bytes.toByteArray()));
+            assertArrayEquals(world.getTiles(), loaded.getTiles());
+            assertEquals(world.getRooms().size(), loaded.getRooms().size());
+            assertArrayEquals(world.getHallways(), loaded.getHallways());
+            assertEquals(world.getAvatarCount(), loaded.getAvatarCount());
+            assertEquals(world.getRecordedActions(), loaded.getRecordedActions());
+            // one byte per cell would be 4800; runs of empty space and floor collapse well below
+            assertTrue(bytes.size() < 2000, "save took " + bytes.size() + " bytes");
+        }
+        assertThrows(IOException.class,
+                () -> WorldCodec.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 1, 0})));
+    }
+
+    @Test
+    public void actionJournalTest() throws IOException {
+        File file = File.createTempFile("session", ".journal");
+        file.deleteOnExit();
+        World world = new World(60, 60, 5);
+        world.addAvatar();
+        ActionJournal journal = ActionJournal.create(file.getPath(), world, 8, 64);
+        Random r = new Random(5);
+        for (int i = 0; i < 300; i++) {
+            world.move("wasd".charAt(r.nextInt(4)));
+        }
+        // crash: the unflushed tail is lost and a half-written record is left behind
+        journal.flush();
+        int saved = world.getRecordedActions().size();
+        for (int i = 0; i < 5; i++) {
+            world.move("wasd".charAt(r.nextInt(4)));
+        }
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] {1, 40, 3});
+        }
+
+        ActionJournal resumed = ActionJournal.resume(file.getPath(), 8, 64);
+        World recovered = resumed.getWorld();
+        assertEquals(saved, recovered.getRecordedActions().size());
+        assertEquals(world.getRecordedActions().subList(0, saved), recovered.getRecordedActions());
+
+        // replaying the same moves from scratch must land on the same world
+        World replayed = new World(60, 60, 5);
+        replayed.addAvatar();
+        for (char action : recovered.getRecordedActions()) {
+            replayed.move(action);
+        }
+        assertArrayEquals(replayed.getTiles(), recovered.getTiles());
+
+        // the torn bytes were cut off, so the session keeps going after a resume
+        recovered.move('w');
+        recovered.move('d');
+        resumed.close();
+        World reloaded = ActionJournal.load(file.getPath());
+        assertEquals(recovered.getRecordedActions(), reloaded.getRecordedActions());
+        assertArrayEquals(recovered.getTiles(), reloaded.getTiles());
+    }
+
+    @Test
+    public void replaySeekTest() {
+        World start = new World(60, 60, 13);
+        start.addAvatar();
+        Random r = new Random(13);
+        List<Character> actions = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            actions.add("wasd".charAt(r.nextInt(4)));
+        }
+
+        // the start world must not be touched, and a copy must evolve like the original
+        World copy = start.copy();
+        Replay replay = new Replay(start, actions, 50);
+        assertEquals(0, start.getRecordedActions().size());
+        World live = start.copy();
+        for (char action : actions) {
+            live.move(action);
+            copy.move(action);
+        }
+        assertArrayEquals(live.getTiles(), copy.getTiles());
+        assertArrayEquals(live.getTiles(), replay.runToEnd().getTiles());
+        assertEquals(live.getRecordedActions(), replay.world().getRecordedActions());
+        assertEquals(1000 / 50 + 1, replay.keyframeCount());
+
+        // random jumps in both directions agree with a straight replay to the same tick
+        for (int i = 0; i < 30; i++) {
+            int target = r.nextInt(actions.size() + 1);
+            World expected = start.copy();
+            for (char action : actions.subList(0, target)) {
+                expected.move(action);
+            }
+            assertArrayEquals(expected.getTiles(), replay.seek(target).getTiles());
+            assertEquals(target, replay.tick());
+            assertEquals(expected.getAvatarCount(), replay.world().getAvatarCount());
+            assertEquals(expected.getRecordedActions(), replay.world().getRecordedActions());
+        }
+        assertThrows(IllegalArgumentException.class, () -> replay.seek(actions.size() + 1));
+    }
+
+    @Test
+    public void zobristHashTest() throws IOException {
+        World world = new World(80, 60, 21);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        World parallel;
+        try {
+            parallel = new World(80, 60, 21, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(world.stateHash() != new World(80, 60, 22).stateHash());
+
+        // a world loaded from a save rebuilds its hash cell by cell, so the incrementally
+        // kept one must match it after generation (including the racing parallel writes)
+        // and after any sequence of moves
+        Random r = new Random(21);
+        for (World w : new World[] {world, parallel}) {
+            for (int i = 0; i <= 500; i++) {
+                if (i % 100 == 0) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    WorldCodec.write(w, bytes, false);
+                    World loaded = WorldCodec.read(new ByteArrayInputStream(bytes.toByteArray()));
+                    assertEquals(loaded.stateHash(), w.stateHash());
+                }
+                long before = w.stateHash();
+                int moves = w.getRecordedActions().size();
+                w.move("wasd".charAt(r.nextInt(4)));
+                assertEquals(w.getRecordedActions().size() == moves, before == w.stateHash());
+            }
+        }
+    }
+
+    @Test
+    public void worldCacheTest() {
+        // room for exactly the three worlds last asked for below
+        long budget = 0;
+        for (long seed = 7; seed < 10; seed++) {
+            WorldCache one = new WorldCache();
+            one.get(seed, 50, 50);
+            // the free floor index is counted too, an int or more per cell
+            assertTrue(one.getMemoryUsed() > 5 * 50 * 50);
+            budget += one.getMemoryUsed();
+        }
+        WorldCache cache = new WorldCache(budget);
+        World fresh = new World(50, 50, 99);
+        World first = cache.get(99, 50, 50);
+        assertArrayEquals(fresh.getTiles(), first.getTiles());
+        assertEquals(fresh.stateHash(), first.stateHash());
+
+        // changing one copy must not leak into the cache or into later copies
+        Random r = new Random(99);
+        for (int i = 0; i < 200; i++) {
+            first.move("wasd".charAt(r.nextInt(4)));
+        }
+        World second = cache.get(99, 50, 50);
+        assertArrayEquals(fresh.getTiles(), second.getTiles());
+        assertTrue(first.stateHash() != second.stateHash());
+        assertEquals(1L, cache.getHits());
+        assertEquals(1L, cache.getMisses());
+
+        // the same random state too: adding an avatar lands where it would on a fresh world
+        fresh.addAvatar();
+        second.addAvatar();
+        assertEquals(fresh.stateHash(), second.stateHash());
+
+        for (long seed = 0; seed < 10; seed++) {
+            cache.get(seed, 50, 50);
+        }
+        assertEquals(3, cache.size());
+        assertEquals(budget, cache.getMemoryUsed());
+        assertEquals(8L, cache.getEvictions());
+        cache.get(9, 50, 50);
+        assertEquals(2.0 / 13, cache.hitRate(), 1e-9);
+    }
+
+    @Test
+    public void inputTrieTest() {
+        // inputs that extend each other, branch apart, repeat, and mix in non-move characters
+        Random r = new Random(16);
+        List<String> inputs = new ArrayList<>();
+        for (int seed = 0; seed < 3; seed++) {
+            StringBuilder moves = new StringBuilder();
+            for (int i = 0; i < 40; i++) {
+                moves.append("wasd".charAt(r.nextInt(4)));
+                if (r.nextInt(5) == 0) {
+                    moves.append('x');
+                }
+                inputs.add("n" + seed + "s" + moves);
+                if (r.nextInt(4) == 0) {
+                    inputs.add("N" + seed + "S" + moves + "wwdd");
+                    inputs.add("n" + seed + "s" + moves);
+                }
+            }
+        }
+        inputs.add("n0s");
+        List<TETile[][]> batch = AutograderBuddy.getWorldsFromInputs(inputs);
+        for (int i = 0; i < inputs.size(); i++) {
+            assertArrayEquals(AutograderBuddy.getWorldFromInput(inputs.get(i)), batch.get(i));
+        }
+        // the player is placed as in Main and the moves take it, in either case
+        World expected = new World(50, 50, 0);
+        expected.addAvatar();
+        int startX = expected.getPlayerX();
+        int startY = expected.getPlayerY();
+        for (char key : "aaaa".toCharArray()) {
+            expected.move(key);
+        }
+        assertTrue(expected.getPlayerX() != startX || expected.getPlayerY() != startY);
+        TETile[][] start = batch.get(inputs.size() - 1);
+        assertEquals(Tileset.AVATAR, start[startX][startY]);
+        TETile[][] moved = AutograderBuddy.getWorldFromInput("n0saaaa");
+        assertEquals(Tileset.AVATAR, moved[expected.getPlayerX()][expected.getPlayerY()]);
+        assertEquals(Tileset.FLOWER, moved[startX][startY]);
+        assertArrayEquals(expected.getTiles(), moved);
+        assertArrayEquals(AutograderBuddy.getWorldFromInput("N0SAAAA"), moved);
+    }
+
+    @Test
+    public void dirtyRenderTest() {
+        World world = new World(50, 50, 17);
+        world.addAvatar();
+        TERenderer ter = new TERenderer();
+        ter.initialize(50, 50);
+        assertEquals(50 * 50, ter.renderChanges(world.getTiles()));
+        assertEquals(0, ter.renderChanges(world.getTiles()));
+
+        // a step redraws the cell left behind and the cell moved into, nothing else
+        TETile[][] before = TETile.copyOf(world.getTiles());
+        for (char key : "wasd".toCharArray()) {
+            world.move(key);
+            int changed = 0;
+            for (int x = 0; x < 50; x++) {
+                for (int y = 0; y < 50; y++) {
+                    changed += before[x][y] == world.getTiles()[x][y] ? 0 : 1;
+                }
+            }
+            assertEquals(changed, ter.renderChanges(world.getTiles()));
+            before = TETile.copyOf(world.getTiles());
+        }
+
+        ter.markRowDirty(49);
+        assertEquals(50, ter.renderChanges(world.getTiles()));
+        ter.invalidate();
+        assertEquals(50 * 50, ter.renderChanges(world.getTiles()));
+    }
+
+    @Test
+    public void tileAtlasTest() {
+        World world = new World(30, 20, 18);
+        TETile[][] tiles = world.getTiles();
+        TileAtlas atlas = new TileAtlas(16);
+        BufferedImage frame = atlas.compose(tiles);
+        assertEquals(30 * 16, frame.getWidth());
+        assertEquals(20 * 16, frame.getHeight());
+        // one image per look, however many tiles use it
+        assertTrue(atlas.size() <= 4);
+        for (int x = 0; x < 30; x++) {
+            for (int y = 0; y < 20; y++) {
+                // tile (x, y) is drawn with y growing upwards; its corner pixel is background
+                int corner = frame.getRGB(x * 16, (19 - y) * 16);
+                assertEquals(tiles[x][y] == Tileset.SAND ? Color.gray.getRGB()
+                        : tiles[x][y] == Tileset.NOTHING ? Color.blue.getRGB()
+                        : Color.black.getRGB(), corner);
+            }
+        }
+
+        // colour variants that come out the same share one image
+        Random r = new Random(18);
+        for (int i = 0; i < 1000; i++) {
+            atlas.image(TETile.colorVariant(Tileset.FLOWER, 2, 2, 2, r));
+        }
+        assertTrue(atlas.size() <= 4 + 5 * 5 * 5);
+    }
+
+    @Test
+    public void cameraTest() {
+        // a big chunked world: only the cells in view are ever read
+        ChunkedWorld world = new ChunkedWorld(19);
+        Set<Long> read = new HashSet<>();
+        TileSource counting = (x, y) -> {
+            read.add(x * 1_000_003L + y);
+            return world.tile(x, y);
+        };
+        TERenderer ter = new TERenderer();
+        ter.initialize(40, 30);
+        Camera camera = new Camera(40, 30, 0.5);
+        camera.follow(1_000_000, -2_000_000);
+        camera.snap();
+        assertEquals(40 * 30, ter.renderView(counting, camera));
+        assertEquals(40 * 30, read.size());
+        assertEquals(1_000_000 - 20, camera.left());
+        assertEquals(-2_000_000 - 15, camera.bottom());
+
+        // smooth scrolling: partway there draws one extra row and column, then it settles
+        camera.follow(1_000_007, -2_000_000);
+        camera.update();
+        assertTrue(!camera.isSettled());
+        assertEquals(41 * 31, ter.renderView(counting, camera));
+        for (int i = 0; i < 20 && !camera.isSettled(); i++) {
+            camera.update();
+        }
+        assertTrue(camera.isSettled());
+        assertEquals(1_000_007 - 20, camera.left());
+        ter.renderView(counting, camera);
+        assertEquals(0, ter.renderView(counting, camera));
+
+        // clamped to a finite world that fits on screen, the camera never moves
+        World small = new World(30, 20, 19);
+        Camera fixed = new Camera(40, 30);
+        fixed.clampTo(small.getWidth(), small.getHeight());
+        fixed.follow(small.getPlayerX(), small.getPlayerY());
+        fixed.snap();
+        assertEquals(0, fixed.left());
+        assertEquals(0, fixed.bottom());
+        assertEquals(Tileset.NOTHING, small.tile(-1, 5));
+    }
+
+    @Test
+    public void gameLoopTest() throws InterruptedException {
+        World world = new World(60, 60, 21);
+        world.addAvatar();
+        World expected = world.copy();
+        String keys = "wwddssaawdwdsasa".repeat(20) + "q";
+        for (char key : keys.toCharArray()) {
+            expected.move(key);
+        }
+
+        // keys typed on another thread all reach the world, in order, with nothing dropped
+        int[] frames = new int[1];
+        GameLoop loop = new GameLoop(new GameLoop.Game() {
+            @Override
+            public boolean onKey(char key) {
+                world.move(key);
+                return key != 'q';
+            }
+
+            @Override
+            public void tick() {
+            }
+
+            @Override
+            public void render() {
+                frames[0]++;
+            }
+
+            @Override
+            public void present() {
+            }
+        }, 240, 60);
+        Thread typist = new Thread(() -> {
+            for (char key : keys.toCharArray()) {
+                loop.submit(key);
+                if (key == 'a') {
+                    Thread.yield();
+                }
+            }
+        });
+        typist.start();
+        loop.run();
+        typist.join();
+        assertArrayEquals(expected.getTiles(), world.getTiles());
+        assertEquals(expected.getRecordedActions(), world.getRecordedActions());
+
+        // ticks outpace frames, and every phase was timed
+        FrameStats stats = loop.getStats();
+        assertEquals(frames[0], loop.getFrames());
+        assertTrue(loop.getTicks() >= loop.getFrames());
+        assertEquals(keys.length(), stats.count(FrameStats.Phase.INPUT_LATENCY));
+        assertEquals(loop.getFrames(), stats.count(FrameStats.Phase.FRAME));
+        long previous = 0;
+        for (double fraction : new double[] {0.5, 0.9, 0.99, 1.0}) {
+            long value = stats.percentile(FrameStats.Phase.FRAME, fraction);
+            assertTrue(value >= previous && value <= stats.max(FrameStats.Phase.FRAME));
+            previous = value;
+        }
+        assertEquals(stats.max(FrameStats.Phase.FRAME),
+                stats.percentile(FrameStats.Phase.FRAME, 1.0));
+
+        // keys queued behind the quit never reach the game
+        StringBuilder seen = new StringBuilder();
+        GameLoop quitting = new GameLoop(new GameLoop.Game() {
+            @Override
+            public boolean onKey(char key) {
+                seen.append(key);
+                return key != 'q';
+            }
+
+            @Override
+            public void tick() {
+            }
+
+            @Override
+            public void render() {
+            }
+
+            @Override
+            public void present() {
+            }
+        }, 240, 60);
+        for (char key : "aqdq".toCharArray()) {
+            quitting.submit(key);
+        }
+        quitting.run();
+        assertEquals("aq", seen.toString());
+    }
+
+    /**
+     * One frame of the game loop, as in Main.runGameLoop, minus the StdDraw text calls of
+     * Hud.draw and the marking of the HUD row as dirty; returns a checksum to use the work.
+     */
+    private static int hotFrame(World world, Camera camera, TERenderer ter, Hud hud,
+                                FrameStats stats, long millis, int frame) {
+        camera.follow(world.getPlayerX(), world.getPlayerY());
+        camera.update();
+        int sum = ter.renderView(world, camera);
+        TETile hovered = world.tile(camera.left() + frame % 3, camera.bottom());
+        sum += hud.hoverText(hovered).length();
+        sum += hud.clockText(millis).length();
+        sum += hud.statsText(stats, millis).length();
+        stats.record(FrameStats.Phase.FRAME, 16_000_000L + frame);
+        return sum;
+    }
+
+    @Test
+    public void hudAllocationTest() {
+        World world = new World(80, 80, 5);
+        world.addAvatar();
+        Camera camera = new Camera(40, 30, 0.35);
+        camera.clampTo(world.getWidth(), world.getHeight());
+        camera.follow(world.getPlayerX(), world.getPlayerY());
+        camera.snap();
+        TERenderer ter = new TERenderer();
+        ter.initialize(40, 30);
+        Hud hud = new Hud();
+        FrameStats stats = new FrameStats();
+        long millis = 1_700_000_000_000L;
+
+        // texts are rebuilt only when what they show changes
+        String clock = hud.clockText(millis);
+        assertSame(clock, hud.clockText(millis + 999));
+        assertNotEquals(clock, hud.clockText(millis + 1000));
+        // whichever text is asked for first in a new second, the other is rebuilt too
+        stats.record(FrameStats.Phase.FRAME, 5_000_000L);
+        assertEquals("frame p95 5.0 ms", hud.statsText(stats, millis));
+        stats.record(FrameStats.Phase.FRAME, 9_000_000L);
+        stats.record(FrameStats.Phase.FRAME, 9_000_000L);
+        String later = hud.clockText(millis + 2000);
+        assertNotEquals(clock, later);
+        assertEquals("frame p95 9.0 ms", hud.statsText(stats, millis + 2000));
+        assertSame(later, hud.clockText(millis + 2000));
+        TETile tile = world.tile(0, 0);
+        assertSame(hud.hoverText(tile), hud.hoverText(tile));
+        assertEquals("Tile: ", hud.hoverText(null));
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        // Past the first frame nothing changes on screen, so no tile is copied into the back
+        // buffer: each Graphics2D.drawImage allocates three Rectangles inside Java2D, which are
+        // gone only when the JIT happens to inline the whole call and escape analysis removes
+        // them.
+        //
+        // The warm-up is long so the JIT is done with the frame before anything is measured.
+        // Until then runs may allocate a little: HotSpot resolves a class's string constants
+        // on the thread that asks for the class's first C2 compile, and methods called once a
+        // frame, like Camera.update, are only asked for after some tens of thousands of calls.
+        int sum = 0;
+        for (int i = 0; i < 100_000; i++) {
+            sum += hotFrame(world, camera, ter, hud, stats, millis, i);
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        long overhead = threads.getCurrentThreadAllocatedBytes() - before;
+        for (int run = 0; run < 5; run++) {
+            before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < 1000; i++) {
+                sum += hotFrame(world, camera, ter, hud, stats, millis, i);
+            }
+            assertEquals(0, threads.getCurrentThreadAllocatedBytes() - before - overhead,
+                    "bytes allocated by 1000 steady frames");
+        }
+        assertTrue(sum != 0);
+    }
+
+    /** What a terminal shows after receiving output: plain text, cursor moves and colours. */
+    private static char[][] emulate(byte[] output, int columns, int rows) {
+        char[][] screen = new char[rows][columns];
+        String text = new String(output, StandardCharsets.UTF_8);
+        int row = 0;
+        int column = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == 0x1b) {
+                int end = i + 2;
+                while (!Character.isLetter(text.charAt(end))) {
+                    end++;
+                }
+                String args = text.substring(i + 2, end);
+                if (text.charAt(end) == 'H') {
+                    row = Integer.parseInt(args.split(";")[0]) - 1;
+                    column = Integer.parseInt(args.split(";")[1]) - 1;
+                } else if (args.equals("2") && text.charAt(end) == 'J') {
+                    screen = new char[rows][columns];
+                }
+                i = end;
+            } else if (c != '\n') {
+                screen[row][column++] = c;
+            }
+        }
+        return screen;
+    }
+
+    @Test
+    public void ansiRendererTest() {
+        World world = new World(40, 30, 8);
+        world.addAvatar();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AnsiRenderer ansi = new AnsiRenderer(out, 40, 30);
+        Camera camera = new Camera(40, 30);
+        ansi.status("left", "mid", "right");
+        assertEquals(40 * 30, ansi.renderView(world, camera));
+
+        // a frame where nothing changed sends nothing
+        long sent = ansi.getBytesWritten();
+        assertEquals(0, ansi.renderView(world, camera));
+        assertEquals(sent, ansi.getBytesWritten());
+
+        // a step redraws the two cells involved, in a few dozen bytes
+        Random r = new Random(8);
+        for (int i = 0; i < 200; i++) {
+            world.move("wasd".charAt(r.nextInt(4)));
+            sent = ansi.getBytesWritten();
+            int drawn = ansi.renderView(world, camera);
+            assertTrue(drawn <= 2);
+            assertTrue(ansi.getBytesWritten() - sent <= 60L * drawn);
+        }
+        ansi.status("left", "", "12:00");
+        ansi.renderChanges(world.getTiles());
+
+        char[][] screen = emulate(out.toByteArray(), 40, 31);
+        TETile[][] tiles = world.getTiles();
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 40; x++) {
+                assertEquals(tiles[x][y].character(), screen[30 - y][x]);
+            }
+        }
+        assertEquals("left" + " ".repeat(31) + "12:00", new String(screen[0]));
+    }
+
+    /** Steps from (x, y) to every cell, by breadth-first search over non-wall tiles. */
+    private static int[][] stepsFrom(TETile[][] tiles, int x, int y) {
+        int[][] steps = new int[tiles.length][tiles[0].length];
+        for (int[] column : steps) {
+            Arrays.fill(column, -1);
+        }
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        steps[x][y] = 0;
+        queue.add(new int[] {x, y});
+        int[][] deltas = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+        while (!queue.isEmpty()) {
+            int[] cell = queue.poll();
+            for (int[] d : deltas) {
+                int nx = cell[0] + d[0];
+                int ny = cell[1] + d[1];
+                if (nx >= 0 && ny >= 0 && nx < tiles.length && ny < tiles[0].length
+                        && steps[nx][ny] == -1 && tiles[nx][ny] != Tileset.SAND) {
+                    steps[nx][ny] = steps[cell[0]][cell[1]] + 1;
+                    queue.add(new int[] {nx, ny});
+                }
+            }
+        }
+        return steps;
+    }
+
+    private static void assertWalkablePath(TETile[][] tiles, int[] path, int length,
+                                           int start, int goal) {
+        int width = tiles.length;
+        assertEquals(start, path[0]);
+        assertEquals(goal, path[length - 1]);
+        for (int i = 0; i < length; i++) {
+            assertTrue(tiles[path[i] % width][path[i] / width] != Tileset.SAND);
+            if (i > 0) {
+                int dx = Math.abs(path[i] % width - path[i - 1] % width);
+                int dy = Math.abs(path[i] / width - path[i - 1] / width);
+                assertEquals(1, dx + dy);
+            }
+        }
+    }
+
+    @Test
+    public void pathfindingTest() throws InterruptedException {
+        for (long seed = 1; seed <= 6; seed++) {
+            World world = new World(100, 70, seed, 40);
+            TETile[][] tiles = world.getTiles();
+            Pathfinder paths = new Pathfinder(world);
+            List<int[]> floor = new ArrayList<>();
+            for (int x = 0; x < 100; x++) {
+                for (int y = 0; y < 70; y++) {
+                    if (tiles[x][y] == Tileset.FLOWER) {
+                        floor.add(new int[] {x, y});
+                    }
+                }
+            }
+
+            // A* and JPS agree with breadth-first search; the room graph route is never shorter
+            Random r = new Random(seed);
+            int[] path = new int[100 * 70];
+            for (int i = 0; i < 40; i++) {
+                int[] a = floor.get(r.nextInt(floor.size()));
+                int[] b = i == 0 ? new int[] {0, 0} : floor.get(r.nextInt(floor.size()));
+                int steps = stepsFrom(tiles, a[0], a[1])[b[0]][b[1]];
+                int start = a[1] * 100 + a[0];
+                int goal = b[1] * 100 + b[0];
+                int expected = steps < 0 ? -1 : steps + 1;
+
+                int length = paths.findPath(a[0], a[1], b[0], b[1], path);
+                assertEquals(expected, length);
+                if (length > 0) {
+                    assertWalkablePath(tiles, path, length, start, goal);
+                }
+                length = paths.jumpPointSearch(a[0], a[1], b[0], b[1], path);
+                assertEquals(expected, length);
+                if (length > 0) {
+                    assertWalkablePath(tiles, path, length, start, goal);
+                }
+                length = paths.findPathRoomGraph(a[0], a[1], b[0], b[1], path);
+                assertEquals(expected < 0, length < 0);
+                if (length > 0) {
+                    assertTrue(length >= expected);
+                    assertWalkablePath(tiles, path, length, start, goal);
+                }
+            }
+        }
+        World world = new World(100, 70, 7, 40);
+        world.addAvatar();
+        Pathfinder paths = new Pathfinder(world);
+        int x = world.getPlayerX();
+        int y = world.getPlayerY();
+        assertEquals(-1, paths.findPath(x, y, -1, 0, new int[1]));
+        assertEquals(1, paths.jumpPointSearch(x, y, x, y, new int[1]));
+
+        // once warmed up, queries allocate nothing, and threads do not share buffers
+        int[] path = new int[100 * 70];
+        int[] expected = new int[3];
+        expected[0] = paths.findPath(x, y, 50, 35, path);
+        expected[1] = paths.jumpPointSearch(x, y, 50, 35, path);
+        expected[2] = paths.findPathRoomGraph(x, y, 50, 35, path);
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+            for (int i = 0; i < 2000; i++) {
+                paths.jumpPointSearch(x, y, 50, 35, path);
+                paths.findPathRoomGraph(x, y, 50, 35, path);
+            }
+            long before = threads.getCurrentThreadAllocatedBytes();
+            long overhead = threads.getCurrentThreadAllocatedBytes() - before;
+            before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < 100; i++) {
+                paths.findPath(x, y, 50, 35, path);
+                paths.jumpPointSearch(x, y, 50, 35, path);
+                paths.findPathRoomGraph(x, y, 50, 35, path);
+            }
+            assertEquals(0, threads.getCurrentThreadAllocatedBytes() - before - overhead,
+                    "bytes allocated by 300 path queries");
+        }
+        Set<String> failures = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                int[] own = new int[100 * 70];
+                for (int i = 0; i < 200; i++) {
+                    if (paths.findPath(x, y, 50, 35, own) != expected[0]
+                            || paths.jumpPointSearch(x, y, 50, 35, own) != expected[1]
+                            || paths.findPathRoomGraph(x, y, 50, 35, own) != expected[2]) {
+                        failures.add(Thread.currentThread().getName());
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void npcSimulationTest() {
+        World serialWorld = new World(400, 300, 11, 700);
+        serialWorld.addAvatar();
+        serialWorld.addAvatars(10000);
+        World parallelWorld = serialWorld.copy();
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            NpcSimulation serial = new NpcSimulation(serialWorld, one, 3);
+            NpcSimulation parallel = new NpcSimulation(parallelWorld, four, 3);
+            assertEquals(serialWorld.getAvatarCount(), serial.size());
+
+            // the same ticks and player moves give the same world on one thread or four
+            Random r = new Random(11);
+            int moved = 0;
+            for (int t = 0; t < 100; t++) {
+                char key = "wasd".charAt(r.nextInt(4));
+                serialWorld.move(key);
+                parallelWorld.move(key);
+                int[] before = new int[serial.size()];
+                for (int id = 0; id < before.length; id++) {
+                    before[id] = serial.cellOf(id);
+                }
+                moved += serial.tick();
+                parallel.tick();
+                assertEquals(serialWorld.stateHash(), parallelWorld.stateHash());
+
+                // nobody jumps, nobody shares a cell, and every survivor is drawn
+                Set<Integer> taken = new HashSet<>();
+                for (int id = 0; id < before.length; id++) {
+                    int cell = serial.cellOf(id);
+                    assertEquals(cell, parallel.cellOf(id));
+                    if (cell < 0) {
+                        continue;
+                    }
+                    assertTrue(taken.add(cell));
+                    int dx = Math.abs(cell % 400 - before[id] % 400);
+                    int dy = Math.abs(cell / 400 - before[id] / 400);
+                    assertTrue(dx + dy <= 1);
+                    assertTrue(serialWorld.hasAvatarAt(cell % 400, cell / 400));
+                }
+            }
+            assertArrayEquals(serialWorld.getTiles(), parallelWorld.getTiles());
+            assertTrue(moved > 100 * 5000);
+            assertEquals(serial.getAliveCount(), serialWorld.getAvatarCount());
+            assertTrue(serial.getAliveCount() <= serial.size());
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+
+    @Test
+    public void flowFieldTest() {
+        // a scattered maze, so that walls cut off and reconnect whole regions
+        Random r = new Random(25);
+        TileGrid grid = new TileGrid(60, 40);
+        for (int i = 0; i < 60 * 40; i++) {
+            grid.setAt(i, r.nextInt(10) < 3 ? TileGrid.SAND : TileGrid.FLOWER);
+        }
+        int sx = 30;
+        int sy = 20;
+        grid.set(sx, sy, TileGrid.FLOWER);
+        FlowField field = new FlowField(grid);
+        field.setSource(sx, sy);
+
+        // every step and wall toggle is updated in place; compare with a fresh search
+        int[][] deltas = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+        for (int op = 0; op < 600; op++) {
+            if (r.nextInt(10) < 6) {
+                int[] d = deltas[r.nextInt(4)];
+                int nx = sx + d[0];
+                int ny = sy + d[1];
+                if (nx >= 0 && ny >= 0 && nx < 60 && ny < 40 && grid.get(nx, ny) != TileGrid.SAND) {
+                    sx = nx;
+                    sy = ny;
+                } else if (r.nextInt(8) == 0) {
+                    do {
+                        sx = r.nextInt(60);
+                        sy = r.nextInt(40);
+                    } while (grid.get(sx, sy) == TileGrid.SAND);
+                }
+                field.setSource(sx, sy);
+            } else {
+                int x = r.nextInt(60);
+                int y = r.nextInt(40);
+                if (x == sx && y == sy) {
+                    continue;
+                }
+                grid.set(x, y, grid.get(x, y) == TileGrid.SAND ? TileGrid.FLOWER : TileGrid.SAND);
+                field.tileChanged(x, y);
+            }
+            int[][] steps = stepsFrom(grid.toTiles(), sx, sy);
+            for (int x = 0; x < 60; x++) {
+                for (int y = 0; y < 40; y++) {
+                    int expected = grid.get(x, y) == TileGrid.SAND ? FlowField.UNREACHABLE : steps[x][y];
+                    assertEquals(expected, field.distance(x, y));
+                }
+            }
+        }
+
+        // following direction from anywhere reaches the source, one step closer each time
+        for (int x = 0; x < 60; x++) {
+            for (int y = 0; y < 40; y++) {
+                int distance = field.distance(x, y);
+                char key = field.direction(x, y);
+                assertEquals(distance > 0, key != 0);
+                if (key != 0) {
+                    int nx = x + (key == 'd' ? 1 : key == 'a' ? -1 : 0);
+                    int ny = y + (key == 'w' ? 1 : key == 's' ? -1 : 0);
+                    assertEquals(distance - 1, field.distance(nx, ny));
+                }
+            }
+        }
+
+        // NPCs chasing the player along the field close in on it
+        World world = new World(80, 60, 4, 30);
+        world.addAvatar();
+        world.addAvatars(200);
+        FlowField chase = new FlowField(world);
+        assertEquals(0, chase.distance(world.getPlayerX(), world.getPlayerY()));
+        NpcSimulation npcs;
+        long before = 0;
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            npcs = new NpcSimulation(world, pool, 4);
+            npcs.chase(chase);
+            for (int id = 0; id < npcs.size(); id++) {
+                int c = npcs.cellOf(id);
+                before += Math.max(0, chase.distance(c % 80, c / 80));
+            }
+            for (int t = 0; t < 20; t++) {
+                npcs.tick();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        long after = 0;
+        for (int id = 0; id < npcs.size(); id++) {
+            int c = npcs.cellOf(id);
+            if (c >= 0) {
+                after += Math.max(0, chase.distance(c % 80, c / 80));
+            }
+        }
+        assertTrue(after < before);
+    }
 }